@@ -1,14 +1,20 @@
 package org.wargamer2010.signshop;
 
+import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.block.Sign;
 import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.blocks.ItemDictionary;
+import org.wargamer2010.signshop.blocks.ItemRequirements;
+import org.wargamer2010.signshop.blocks.SharedItem;
 import org.wargamer2010.signshop.blocks.SignShopBooks;
 import org.wargamer2010.signshop.blocks.SignShopItemMeta;
+import org.wargamer2010.signshop.configuration.Storage;
 import org.wargamer2010.signshop.player.PlayerCache;
 import org.wargamer2010.signshop.player.PlayerIdentifier;
 import org.wargamer2010.signshop.player.SignShopPlayer;
+import org.wargamer2010.signshop.util.economyUtil;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
@@ -18,46 +24,79 @@ import java.util.*;
 public class Seller {
     private List<Block> containables;
     private List<Block> activatables;
-    private ItemStack[] isItems;
+    private SharedItem[] isItems;
+    // Made on first use, dropped whenever the items change
+    private ItemRequirements itemRequirements = null;
     private final Location signLocation;
     private final Map<String, String> miscProps = new HashMap<>();
+    // Handed out by getRawMisc, only changes made through it mark the shop as changed
+    private final Map<String, String> miscView = new MiscView();
     private final Map<String, String> volatileProperties = new LinkedHashMap<>();
-    private Map<String, Object> serializedData = new HashMap<>();
+    // Last snapshot taken, reused for as long as nothing that is stored changes
+    private SellerSnapshot snapshot = null;
+    // Text of the sign, read once so clicks do not need a snapshot of the sign block
+    private String[] signLines = null;
+    private String operation = "";
+    private double price = 0.0d;
 
     private SignShopPlayer owner;
     private final String world;
 
     public Seller(PlayerIdentifier playerId, String sWorld, List<Block> pContainables, List<Block> pActivatables, ItemStack[] isChestItems, Location location,
             Map<String, String> pMiscProps, Boolean save) {
+        this(playerId, sWorld, pContainables, pActivatables, ItemDictionary.intern(isChestItems), location, pMiscProps);
+        if(save)
+            storeMeta(getItems(false));
+    }
+
+    public Seller(PlayerIdentifier playerId, String sWorld, List<Block> pContainables, List<Block> pActivatables, SharedItem[] sharedItems, Location location,
+            Map<String, String> pMiscProps) {
         owner = PlayerCache.getPlayer(playerId);//new SignShopPlayer(playerId);
         world = sWorld;
 
-        isItems = itemUtil.getBackupItemStack(isChestItems);
+        isItems = sharedItems;
         containables = pContainables;
         activatables = pActivatables;
         signLocation = location;
         if(pMiscProps != null)
             miscProps.putAll(pMiscProps);
-        if(save)
-            storeMeta(isItems);
-
-        calculateSerialization();
+        // Signs in unloaded chunks are read on first use instead
+        if(location.getWorld() != null && location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4))
+            loadSign();
     }
 
     public ItemStack[] getItems() {
         return getItems(true);
     }
 
+    /**
+     * @param backup False to get the instances shared with other shops, which must not be modified
+     * @return The items of this shop
+     */
     public ItemStack[] getItems(boolean backup) {
-        if(backup)
-            return itemUtil.getBackupItemStack(isItems);
-        else
-            return isItems;
+        if(isItems == null)
+            return null;
+        ItemStack[] stacks = new ItemStack[isItems.length];
+        for(int i = 0; i < isItems.length; i++) {
+            if(isItems[i] != null)
+                stacks[i] = (backup ? isItems[i].getItem() : isItems[i].getSharedItem());
+        }
+        return stacks;
     }
 
     public void setItems(ItemStack[] items) {
-        isItems = items;
-        calculateSerialization();
+        isItems = ItemDictionary.intern(items);
+        itemRequirements = null;
+        markDirty();
+    }
+
+    /**
+     * @return The items of this shop as they are matched against inventories, made once per change of the items
+     */
+    public ItemRequirements getItemRequirements() {
+        if(itemRequirements == null)
+            itemRequirements = ItemRequirements.of(getItems(false));
+        return itemRequirements;
     }
 
     public List<Block> getContainables() {
@@ -66,7 +105,8 @@ public class Seller {
 
     public void setContainables(List<Block> blocklist) {
         containables = blocklist;
-        calculateSerialization();
+        updateBlockIndex();
+        markDirty();
     }
 
     public List<Block> getActivatables() {
@@ -75,7 +115,13 @@ public class Seller {
 
     public void setActivatables(List<Block> blocklist) {
         activatables = blocklist;
-        calculateSerialization();
+        updateBlockIndex();
+        markDirty();
+    }
+
+    private void updateBlockIndex() {
+        if(Storage.get() != null)
+            Storage.get().updateBlockIndex(this);
     }
 
     public SignShopPlayer getOwner() {
@@ -84,7 +130,7 @@ public class Seller {
 
     public void setOwner(SignShopPlayer newowner) {
         owner = newowner;
-        calculateSerialization();
+        markDirty();
     }
 
     public boolean isOwner(SignShopPlayer player) {
@@ -101,12 +147,12 @@ public class Seller {
 
     public void removeMisc(String key) {
         miscProps.remove(key);
-        calculateSerialization();
+        markDirty();
     }
 
     public void addMisc(String key, String value) {
         miscProps.put(key, value);
-        calculateSerialization();
+        markDirty();
     }
 
     public String getMisc(String key) {
@@ -115,8 +161,12 @@ public class Seller {
         return null;
     }
 
+    /**
+     * @return The live misc settings, changes made to them are stored the next time this shop is saved.
+     * Only reading them keeps the last encoded form of this shop.
+     */
     public Map<String, String> getRawMisc() {
-        return miscProps;
+        return miscView;
     }
 
     public static void storeMeta(ItemStack[] stacks) {
@@ -149,14 +199,64 @@ public class Seller {
     }
 
     public String getOperation() {
+        return (loadSign() ? operation : "");
+    }
+
+    public double getPrice() {
+        loadSign();
+        return price;
+    }
+
+    /**
+     * @return Lines of the sign, which must not be modified, or null if the sign is gone
+     */
+    public String[] getSignLines() {
+        loadSign();
+        return signLines;
+    }
+
+    /**
+     * Updates the cached text of the sign, to be called whenever the text of the sign is changed
+     *
+     * @param lines New lines of the sign
+     */
+    public void setSignLines(String[] lines) {
+        signLines = lines.clone();
+        operation = signshopUtil.getOperation(signLines[0]);
+        price = economyUtil.parsePrice(signLines[3]);
+    }
+
+    /**
+     * Reads the text of the sign again on next use, for changes made to the sign block directly
+     */
+    public void reloadSign() {
+        signLines = null;
+    }
+
+    /**
+     * Colors the operation on the sign, the sign block is only touched if the color changes. Other colors set
+     * through {@link itemUtil#setSignStatus(Block, ChatColor)} update the cached lines too.
+     *
+     * @param color New color
+     */
+    public void setSignStatus(ChatColor color) {
+        String[] lines = getSignLines();
+        if(lines == null)
+            return;
+        String stripped = ChatColor.stripColor(lines[0]);
+        if(stripped.length() > 14 || lines[0].equals(color + stripped))
+            return;
+        itemUtil.setSignStatus(getSign(), color);
+    }
+
+    private boolean loadSign() {
+        if(signLines != null)
+            return true;
         Block block = getSign();
-        if(block == null)
-            return "";
-        if(itemUtil.clickedSign(block)) {
-            Sign sign = (Sign) block.getState();
-            return signshopUtil.getOperation(sign.getLine(0));
-        }
-        return "";
+        if(block == null || !itemUtil.clickedSign(block))
+            return false;
+        setSignLines(((Sign) block.getState()).getLines());
+        return true;
     }
 
     public void reloadBlocks() {
@@ -168,44 +268,68 @@ public class Seller {
             tempActivatables.add(b.getWorld().getBlockAt(b.getX(), b.getY(), b.getZ()));
         containables = tempContainables;
         activatables = tempActivatables;
-        calculateSerialization();
+        // Same coordinates, so the stored form does not change
     }
 
     public Map<String, Object> getSerializedData() {
-        return serializedData;
+        return getSnapshot().getSerializedData();
+    }
+
+    /**
+     * Captures the stored state of this shop, to be called on the main thread. The snapshot is reused until the shop
+     * changes, so saving an unchanged shop does not encode it again.
+     *
+     * @return Immutable snapshot that can be serialized on any thread
+     */
+    public SellerSnapshot getSnapshot() {
+        if(snapshot == null)
+            snapshot = new SellerSnapshot(getWorld(), getOwner().GetIdentifier().toString(), isItems, containables, activatables, signLocation, miscProps);
+        return snapshot;
     }
 
-    private void calculateSerialization() {
-        Map<String, Object> temp = new HashMap<>();
+    private void markDirty() {
+        snapshot = null;
+    }
 
-        temp.put("shopworld", getWorld());
-        temp.put("owner", getOwner().GetIdentifier().toString());
-        temp.put("items", itemUtil.convertItemStacksToString(getItems(false)));
+    private class MiscView extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            return miscProps.get(key);
+        }
 
-        String[] sContainables = new String[containables.size()];
-        for(int i = 0; i < containables.size(); i++)
-            sContainables[i] = signshopUtil.convertLocationToString(containables.get(i).getLocation());
-        temp.put("containables", sContainables);
+        @Override
+        public boolean containsKey(Object key) {
+            return miscProps.containsKey(key);
+        }
 
-        String[] sActivatables = new String[activatables.size()];
-        for(int i = 0; i < activatables.size(); i++)
-            sActivatables[i] = signshopUtil.convertLocationToString(activatables.get(i).getLocation());
-        temp.put("activatables", sActivatables);
+        @Override
+        public String put(String key, String value) {
+            markDirty();
+            return miscProps.put(key, value);
+        }
 
-        temp.put("sign", signshopUtil.convertLocationToString(getSignLocation()));
+        @Override
+        public String remove(Object key) {
+            markDirty();
+            return miscProps.remove(key);
+        }
 
-        Map<String, String> misc = miscProps;
-        if(misc.size() > 0)
-            temp.put("misc", MapToList(misc));
+        @Override
+        public void clear() {
+            markDirty();
+            miscProps.clear();
+        }
 
-        serializedData = temp;
-    }
+        @Override
+        public int size() {
+            return miscProps.size();
+        }
 
-    private List<String> MapToList(Map<String, String> map) {
-        List<String> returnList = new LinkedList<>();
-        for(Map.Entry<String, String> entry : map.entrySet())
-            returnList.add(entry.getKey() + ":" + entry.getValue());
-        return returnList;
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            // Changes go through put and remove
+            return Collections.unmodifiableMap(miscProps).entrySet();
+        }
     }
 
 
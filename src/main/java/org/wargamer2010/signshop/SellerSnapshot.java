@@ -0,0 +1,108 @@
+package org.wargamer2010.signshop;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.wargamer2010.signshop.blocks.SharedItem;
+
+import java.util.*;
+
+/**
+ * Immutable copy of the stored state of a Seller. Taking one is cheap, the stored form is only built when
+ * {@link #getSerializedData()} is first called, which is safe from any thread, typically the save thread.
+ */
+public final class SellerSnapshot {
+    private final String world;
+    private final String owner;
+    private final SharedItem[] items;
+    private final String[] containableWorlds;
+    private final int[] containableCoords;
+    private final String[] activatableWorlds;
+    private final int[] activatableCoords;
+    private final String signWorld;
+    private final int signX;
+    private final int signY;
+    private final int signZ;
+    private final Map<String, String> misc;
+    private volatile Map<String, Object> serializedData = null;
+
+    SellerSnapshot(String world, String owner, SharedItem[] items, List<Block> containables, List<Block> activatables,
+                   Location sign, Map<String, String> misc) {
+        this.world = world;
+        this.owner = owner;
+        this.items = (items == null ? new SharedItem[0] : items.clone());
+        this.containableWorlds = new String[containables.size()];
+        this.containableCoords = new int[containables.size() * 3];
+        copyBlocks(containables, containableWorlds, containableCoords);
+        this.activatableWorlds = new String[activatables.size()];
+        this.activatableCoords = new int[activatables.size() * 3];
+        copyBlocks(activatables, activatableWorlds, activatableCoords);
+        this.signWorld = sign.getWorld().getName();
+        this.signX = sign.getBlockX();
+        this.signY = sign.getBlockY();
+        this.signZ = sign.getBlockZ();
+        this.misc = new LinkedHashMap<>(misc);
+    }
+
+    private static void copyBlocks(List<Block> blocks, String[] worlds, int[] coords) {
+        int i = 0;
+        for(Block block : blocks) {
+            worlds[i] = block.getWorld().getName();
+            coords[i * 3] = block.getX();
+            coords[i * 3 + 1] = block.getY();
+            coords[i * 3 + 2] = block.getZ();
+            i++;
+        }
+    }
+
+    /**
+     * @return The stored form of the Seller, built once per snapshot
+     */
+    public Map<String, Object> getSerializedData() {
+        Map<String, Object> data = serializedData;
+        if(data == null) {
+            synchronized(this) {
+                if(serializedData == null)
+                    serializedData = Collections.unmodifiableMap(serialize());
+                data = serializedData;
+            }
+        }
+        return data;
+    }
+
+    private Map<String, Object> serialize() {
+        Map<String, Object> temp = new HashMap<>();
+
+        temp.put("shopworld", world);
+        temp.put("owner", owner);
+
+        List<String> encoded = new ArrayList<>(items.length);
+        for(SharedItem item : items) {
+            if(item != null)
+                encoded.add(item.getEncoded());
+        }
+        temp.put("items", encoded.toArray(new String[0]));
+        temp.put("containables", toLocationStrings(containableWorlds, containableCoords));
+        temp.put("activatables", toLocationStrings(activatableWorlds, activatableCoords));
+        temp.put("sign", toLocationString(signX, signY, signZ, signWorld));
+
+        if(misc.size() > 0) {
+            List<String> miscList = new LinkedList<>();
+            for(Map.Entry<String, String> entry : misc.entrySet())
+                miscList.add(entry.getKey() + ":" + entry.getValue());
+            temp.put("misc", miscList);
+        }
+        return temp;
+    }
+
+    private static String[] toLocationStrings(String[] worlds, int[] coords) {
+        String[] locations = new String[worlds.length];
+        for(int i = 0; i < worlds.length; i++)
+            locations[i] = toLocationString(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2], worlds[i]);
+        return locations;
+    }
+
+    // Same format as signshopUtil.convertLocationToString
+    private static String toLocationString(int x, int y, int z, String world) {
+        return x + "/" + y + "/" + z + "/" + world;
+    }
+}
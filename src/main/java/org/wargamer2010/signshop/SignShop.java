@@ -12,6 +12,7 @@ import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.FileUtil;
 import org.jetbrains.annotations.NotNull;
+import org.wargamer2010.signshop.blocks.SSDatabase;
 import org.wargamer2010.signshop.blocks.SignShopBooks;
 import org.wargamer2010.signshop.blocks.SignShopItemMeta;
 import org.wargamer2010.signshop.commands.*;
@@ -25,6 +26,7 @@ import org.wargamer2010.signshop.listeners.SignShopPlayerListener;
 import org.wargamer2010.signshop.listeners.SignShopServerListener;
 import org.wargamer2010.signshop.listeners.sslisteners.*;
 import org.wargamer2010.signshop.money.MoneyModifierManager;
+import org.wargamer2010.signshop.player.PlayerMetaCache;
 import org.wargamer2010.signshop.player.PlayerMetadata;
 import org.wargamer2010.signshop.timing.TimeManager;
 import org.wargamer2010.signshop.util.DataConverter;
@@ -245,6 +247,9 @@ public class SignShop extends JavaPlugin {
         if (store != null)
             store.Save();
         Storage.dispose();
+        PlayerMetaCache.dispose();
+        SignShopItemMeta.dispose();
+        SSDatabase.closeAll();
         if (manager != null)
             manager.stop();
         log("Disabled", Level.INFO);
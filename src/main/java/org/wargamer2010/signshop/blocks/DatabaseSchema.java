@@ -0,0 +1,67 @@
+package org.wargamer2010.signshop.blocks;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Schemas of the SignShop databases as lists of migrations, see {@link SSDatabase#migrate(List)}.
+ * Version 1 is the schema created by older versions, which may already exist without a version being recorded.
+ */
+public class DatabaseSchema {
+    public static final List<SSDatabase.Migration> books = Collections.unmodifiableList(Arrays.asList(
+            // 1: Books and item meta as they used to be created
+            db -> {
+                db.update("CREATE TABLE IF NOT EXISTS Book ( BookID INTEGER, Title TEXT NOT NULL, Author VARCHAR(200) NOT NULL, Pages TEXT, "
+                        + "Generation INTEGER NOT NULL DEFAULT -1, PRIMARY KEY(BookID) )", null);
+                if(!db.columnExists("Book", "Generation"))
+                    db.update("ALTER TABLE Book ADD COLUMN Generation INTEGER NOT NULL DEFAULT -1;", null);
+                db.update("CREATE TABLE IF NOT EXISTS ItemMeta ( ItemMetaID INTEGER, ItemMetaHash INT, PRIMARY KEY(ItemMetaID) )", null);
+                db.update("CREATE TABLE IF NOT EXISTS MetaProperty ( PropertyID INTEGER, ItemMetaID INTEGER, PropertyName TEXT NOT NULL, ProperyValue TEXT NOT NULL, PRIMARY KEY(PropertyID) )", null);
+            },
+            // 2: Indexes for every lookup and a content hash for books, so books are not compared by their full text
+            db -> {
+                db.update("CREATE INDEX IF NOT EXISTS ItemMetaHashIndex ON ItemMeta ( ItemMetaHash )", null);
+                db.update("CREATE INDEX IF NOT EXISTS MetaPropertyItemIndex ON MetaProperty ( ItemMetaID )", null);
+                db.update("ALTER TABLE Book ADD COLUMN ContentHash TEXT", null);
+                Map<Integer, String> hashes = db.query("SELECT BookID, Title, Author, Pages, Generation FROM Book", null, set -> {
+                    Map<Integer, String> found = new LinkedHashMap<>();
+                    while(set.next())
+                        found.put(set.getInt("BookID"), SignShopBooks.getContentHash(set.getString("Title"), set.getString("Author"),
+                                set.getString("Pages"), set.getInt("Generation")));
+                    return found;
+                });
+                if(hashes == null)
+                    throw new SQLException("Could not read books");
+                Map<Integer, Object> pars = new LinkedHashMap<>();
+                for(Map.Entry<Integer, String> hash : hashes.entrySet()) {
+                    pars.put(1, hash.getValue());
+                    pars.put(2, hash.getKey());
+                    db.update("UPDATE Book SET ContentHash = ? WHERE BookID = ?", pars);
+                }
+                db.update("CREATE INDEX IF NOT EXISTS BookContentHashIndex ON Book ( ContentHash )", null);
+            }
+    ));
+
+    public static final List<SSDatabase.Migration> players = Collections.unmodifiableList(Arrays.asList(
+            // 1: Player meta as it used to be created
+            db -> db.update("CREATE TABLE IF NOT EXISTS PlayerMeta ( PlayerMetaID INTEGER, Playername TEXT NOT NULL, Plugin TEXT NOT NULL, "
+                    + "Metakey TEXT NOT NULL, Metavalue TEXT NOT NULL, PRIMARY KEY(PlayerMetaID) )", null),
+            // 2: One value per key, so values can be upserted, which also serves every lookup
+            db -> {
+                db.update("DELETE FROM PlayerMeta WHERE PlayerMetaID NOT IN (SELECT MAX(PlayerMetaID) FROM PlayerMeta GROUP BY Plugin, Playername, Metakey)", null);
+                db.update("CREATE UNIQUE INDEX IF NOT EXISTS PlayerMetaKey ON PlayerMeta ( Plugin, Playername, Metakey )", null);
+            },
+            // 3: Player names converted to UUIDs, the conversion itself runs in the background and only then applies this
+            db -> { }
+    ));
+
+    /**
+     * Version of the player database from which on player names have been converted to UUIDs,
+     * see {@link org.wargamer2010.signshop.player.PlayerMetadata#convertToUuid}
+     */
+    public static final int playersConvertedVersion = 3;
+
+    private DatabaseSchema() {
+
+    }
+}
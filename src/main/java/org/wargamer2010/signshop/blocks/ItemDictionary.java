@@ -0,0 +1,124 @@
+package org.wargamer2010.signshop.blocks;
+
+import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.configuration.SignShopConfig;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Content addressed table of the items sold by shops. Items are keyed by their serialized form, so a stack is
+ * decoded once no matter how many shops sell it, and every shop gets the same immutable {@link SharedItem}.
+ * Entries are only weakly referenced and disappear once no shop holds them anymore.
+ */
+public class ItemDictionary {
+    private static final Map<String, ItemReference> items = new HashMap<>();
+    private static final ReferenceQueue<SharedItem> collected = new ReferenceQueue<>();
+
+    private ItemDictionary() {
+
+    }
+
+    /**
+     * Returns the shared entry for the given stack, copying the stack if it is not known yet
+     *
+     * @param stack Stack to look up
+     * @return Shared entry, or null if the stack is null
+     */
+    public static SharedItem intern(ItemStack stack) {
+        if(stack == null)
+            return null;
+        String encoded = BukkitSerialization.itemStackArrayToBase64(new ItemStack[] { stack });
+        SharedItem existing = get(encoded);
+        if(existing != null)
+            return existing;
+        return put(new SharedItem(encoded, stack.clone()));
+    }
+
+    /**
+     * Returns the shared entry for the given serialized stack, decoding it only if it is not known yet.
+     * Safe to call from multiple threads.
+     *
+     * @param encoded Serialized stack as written by BukkitSerialization
+     * @return Shared entry, or null if the string could not be decoded
+     */
+    public static SharedItem intern(String encoded) {
+        if(encoded == null)
+            return null;
+        SharedItem existing = get(encoded);
+        if(existing != null)
+            return existing;
+        try {
+            ItemStack[] stacks = BukkitSerialization.itemStackArrayFromBase64(encoded);
+            if(stacks.length == 0 || stacks[0] == null)
+                return null;
+            return put(new SharedItem(encoded, stacks[0]));
+        } catch(Exception ex) {
+            if(SignShopConfig.debugging())
+                SignShop.log("Error converting strings to item stacks.", Level.WARNING);
+            return null;
+        }
+    }
+
+    public static SharedItem[] intern(ItemStack[] stacks) {
+        if(stacks == null)
+            return null;
+        SharedItem[] shared = new SharedItem[stacks.length];
+        for(int i = 0; i < stacks.length; i++)
+            shared[i] = intern(stacks[i]);
+        return shared;
+    }
+
+    public static SharedItem[] intern(List<String> encoded) {
+        SharedItem[] shared = new SharedItem[encoded.size()];
+        for(int i = 0; i < shared.length; i++)
+            shared[i] = intern(encoded.get(i));
+        return shared;
+    }
+
+    /**
+     * @return Amount of distinct items currently held by shops
+     */
+    public static synchronized int size() {
+        expunge();
+        return items.size();
+    }
+
+    private static synchronized SharedItem get(String encoded) {
+        ItemReference reference = items.get(encoded);
+        return (reference == null ? null : reference.get());
+    }
+
+    private static synchronized SharedItem put(SharedItem item) {
+        expunge();
+        // Another thread may have decoded the same item in the meantime, the first one wins
+        ItemReference reference = items.get(item.getEncoded());
+        SharedItem existing = (reference == null ? null : reference.get());
+        if(existing != null)
+            return existing;
+        items.put(item.getEncoded(), new ItemReference(item, collected));
+        return item;
+    }
+
+    private static void expunge() {
+        ItemReference reference;
+        while((reference = (ItemReference) collected.poll()) != null) {
+            if(items.get(reference.key) == reference)
+                items.remove(reference.key);
+        }
+    }
+
+    private static class ItemReference extends WeakReference<SharedItem> {
+        private final String key;
+
+        private ItemReference(SharedItem item, ReferenceQueue<SharedItem> queue) {
+            super(item, queue);
+            this.key = item.getEncoded();
+        }
+    }
+}
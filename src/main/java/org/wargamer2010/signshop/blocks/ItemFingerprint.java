@@ -0,0 +1,84 @@
+package org.wargamer2010.signshop.blocks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.Objects;
+
+/**
+ * Identity of an item regardless of its amount, to match and count stacks by. Items with the same fingerprint
+ * stack with each other, the same as {@link ItemStack#isSimilar(ItemStack)}. The meta is read and hashed only once,
+ * when the fingerprint is made.
+ */
+public final class ItemFingerprint {
+    private final Material type;
+    private final short damage;
+    // Meta without the damage, null for items without meta
+    private final ItemMeta meta;
+    private final int hash;
+
+    @SuppressWarnings("deprecation")
+    private ItemFingerprint(ItemStack stack) {
+        type = stack.getType();
+        damage = stack.getDurability();
+        meta = getMetaWithoutDamage(stack);
+        hash = (31 * (31 * type.hashCode() + damage) + (meta == null ? 0 : meta.hashCode()));
+    }
+
+    /**
+     * @param stack Stack to make the fingerprint of
+     * @return Fingerprint of the stack, null for null stacks
+     */
+    public static ItemFingerprint of(ItemStack stack) {
+        return (stack == null ? null : new ItemFingerprint(stack));
+    }
+
+    private static ItemMeta getMetaWithoutDamage(ItemStack stack) {
+        if(!stack.hasItemMeta())
+            return null;
+        // A copy, so it is ours to change
+        ItemMeta meta = stack.getItemMeta();
+        if(meta instanceof Damageable)
+            ((Damageable) meta).setDamage(0);
+        // Empty meta equals no meta, so both must hash the same
+        return (Bukkit.getItemFactory().equals(meta, null) ? null : meta);
+    }
+
+    public Material getType() {
+        return type;
+    }
+
+    public short getDamage() {
+        return damage;
+    }
+
+    public int getMaxStackSize() {
+        return type.getMaxStackSize();
+    }
+
+    /**
+     * @param other Fingerprint to compare with
+     * @return True if both items are the same apart from their damage
+     */
+    public boolean equalsIgnoringDamage(ItemFingerprint other) {
+        return (other != null && type == other.type && Objects.equals(meta, other.meta));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(this == other)
+            return true;
+        if(!(other instanceof ItemFingerprint))
+            return false;
+        ItemFingerprint fingerprint = (ItemFingerprint) other;
+        return (hash == fingerprint.hash && damage == fingerprint.damage && equalsIgnoringDamage(fingerprint));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,109 @@
+package org.wargamer2010.signshop.blocks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Total amount needed of every item in a list of stacks, made once so the same items can be checked against many
+ * inventories without hashing or copying them again. Stacks are matched against copies held by the server, which
+ * compare their tags directly, a plain stack would copy the meta of both stacks on every comparison. Shops keep
+ * theirs, see {@link org.wargamer2010.signshop.Seller#getItemRequirements()}.
+ */
+public final class ItemRequirements {
+    // Turns plain stacks into stacks of the server, guarded by the class
+    private static Inventory scratch = null;
+
+    private final ItemFingerprint[] items;
+    private final int[] amounts;
+    // First stack given for every item, as a stack of the server
+    private final ItemStack[] stacks;
+
+    private ItemRequirements(ItemFingerprint[] items, int[] amounts, ItemStack[] stacks) {
+        this.items = items;
+        this.amounts = amounts;
+        this.stacks = stacks;
+    }
+
+    /**
+     * @param stacks Stacks that are needed, may contain null and the same item more than once
+     * @return The amount needed per item
+     */
+    public static ItemRequirements of(ItemStack[] stacks) {
+        List<ItemFingerprint> items = new ArrayList<>();
+        List<Integer> amounts = new ArrayList<>();
+        List<ItemStack> firstStacks = new ArrayList<>();
+        if(stacks != null) {
+            for(ItemStack stack : stacks) {
+                if(stack == null)
+                    continue;
+                ItemFingerprint fingerprint = ItemFingerprint.of(stack);
+                int index = items.indexOf(fingerprint);
+                if(index == -1) {
+                    items.add(fingerprint);
+                    amounts.add(stack.getAmount());
+                    firstStacks.add(stack.getClass() == ItemStack.class ? toServerStack(stack) : stack);
+                } else {
+                    amounts.set(index, amounts.get(index) + stack.getAmount());
+                }
+            }
+        }
+
+        int[] amountsArray = new int[amounts.size()];
+        for(int i = 0; i < amountsArray.length; i++)
+            amountsArray[i] = amounts.get(i);
+        return new ItemRequirements(items.toArray(new ItemFingerprint[0]), amountsArray, firstStacks.toArray(new ItemStack[0]));
+    }
+
+    private static ItemStack toServerStack(ItemStack stack) {
+        synchronized(ItemRequirements.class) {
+            if(scratch == null)
+                scratch = Bukkit.createInventory(null, 9);
+            // Inventories hand out stacks backed by their own copy, which stays valid once the slot is cleared
+            scratch.setItem(0, stack);
+            ItemStack copy = scratch.getItem(0);
+            scratch.setItem(0, null);
+            return (copy == null ? stack : copy);
+        }
+    }
+
+    /**
+     * @return Number of different items needed
+     */
+    public int size() {
+        return items.length;
+    }
+
+    public ItemFingerprint getItem(int index) {
+        return items[index];
+    }
+
+    public int getAmount(int index) {
+        return amounts[index];
+    }
+
+    /**
+     * @param index Index of the item
+     * @return The first of the given stacks that is the item, or a copy of it, the caller must not change it
+     */
+    public ItemStack getStack(int index) {
+        return stacks[index];
+    }
+
+    /**
+     * @param stack Stack to look up, may be null
+     * @return Index of the item the stack is, or -1 if it is not needed
+     */
+    public int indexOf(ItemStack stack) {
+        if(stack == null)
+            return -1;
+        for(int i = 0; i < items.length; i++) {
+            if(stack.getType() == items[i].getType() && stack.isSimilar(stacks[i]))
+                return i;
+        }
+        return -1;
+    }
+}
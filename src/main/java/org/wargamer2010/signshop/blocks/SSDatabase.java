@@ -1,19 +1,28 @@
-
 package org.wargamer2010.signshop.blocks;
 
 import org.wargamer2010.signshop.SignShop;
 
 import java.io.File;
 import java.sql.*;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 
+/**
+ * Handle on one of the SQLite databases of SignShop. Every database file has a single connection that stays open
+ * until {@link #closeAll()}, so creating and closing an SSDatabase is cheap. The connection keeps prepared statements
+ * around, runs in WAL mode and is used by one thread at a time.
+ */
 public class SSDatabase {
     private static final String downloadURL = "http://cloud.github.com/downloads/wargamer/SignShop/";
+    private static final int statementCacheSize = 64;
+    private static final Map<String, PooledConnection> connections = new HashMap<>();
+    private static final Map<String, String> resolvedFilenames = new HashMap<>();
     private static Driver driver = null;
-    private Connection conn = null;
+    private PooledConnection conn = null;
     private String filename;
 
     public SSDatabase(final String pFilename) {
@@ -28,58 +37,57 @@ public class SSDatabase {
     }
 
     private void checkLegacy() {
+        synchronized(resolvedFilenames) {
+            // The files only have to be moved once, there is no need to look at the disk every time
+            String resolved = resolvedFilenames.get(filename);
+            if(resolved == null) {
+                resolved = resolveFilename(filename);
+                resolvedFilenames.put(filename, resolved);
+            }
+            filename = resolved;
+        }
+    }
+
+    private static String resolveFilename(String filename) {
         String dbdirname = "db";
         File dbdir = new File(SignShop.getInstance().getDataFolder(), dbdirname);
         if(!dbdir.exists() && !dbdir.mkdirs()) {
             SignShop.log("Could not create db directory in plugin folder. Will use old path (plugins/SignShop) in stead of (plugins/SignShop/ " + dbdirname + ").", Level.WARNING);
-            return;
+            return filename;
         }
         File olddb = new File(SignShop.getInstance().getDataFolder(), filename);
         File newdb = new File(SignShop.getInstance().getDataFolder(), (dbdirname + File.separator + filename));
         if(olddb.exists()) {
             if(!newdb.exists() && !olddb.renameTo(newdb)) {
                 SignShop.log("Could not move " + filename + " to (plugins/SignShop/ " + dbdirname + ") directory. Please move the file manually. Will use old path for now.", Level.WARNING);
-                return;
+                return filename;
             }
         }
 
-        filename = (dbdirname + File.separator + filename);
+        return (dbdirname + File.separator + filename);
     }
 
     public Boolean tableExists(String tablename) {
-        try {
-            Map<Integer, Object> pars = new LinkedHashMap<>();
-            pars.put(1, "table");
-            pars.put(2, tablename);
-            ResultSet set = (ResultSet)runStatement("SELECT name FROM sqlite_master WHERE type = ? AND name = ?;", pars, true);
-            if(set != null && set.next()) {
-                set.close();
-                return true;
-            }
-        } catch (SQLException ignored) {
-        }
-
-        return false;
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, "table");
+        pars.put(2, tablename);
+        Boolean exists = query("SELECT name FROM sqlite_master WHERE type = ? AND name = ?;", pars, ResultSet::next);
+        return (exists != null && exists);
     }
 
     public boolean columnExists(String needle) {
-        ResultSet result = (ResultSet) runStatement("PRAGMA table_info(Book);", null, true);
-        if(result == null)
-            return false;
+        return columnExists("Book", needle);
+    }
 
-        try {
-            do {
-                String columnName = result.getString("name");
-                if(columnName.equalsIgnoreCase(needle))
+    public boolean columnExists(String tablename, String needle) {
+        Boolean exists = query("PRAGMA table_info(" + tablename + ");", null, result -> {
+            while(result.next()) {
+                if(result.getString("name").equalsIgnoreCase(needle))
                     return true;
-            } while(result.next());
-        } catch (SQLException ex) {
-            SignShop.log("Failed to check for column existence on Book table because: " + ex.getMessage(), Level.WARNING);
-        } finally {
-            close();
-        }
-
-        return false;
+            }
+            return false;
+        });
+        return (exists != null && exists);
     }
 
     public final void loadLib() {
@@ -95,60 +103,295 @@ public class SSDatabase {
     public final boolean open() {
         if(driver == null)
             return false;
-        try {
-            File DBFile = new File(SignShop.getInstance().getDataFolder(), filename);
-            conn = driver.connect("jdbc:sqlite:" + DBFile.getPath(), new Properties());
-        } catch (SQLException ignored) {
+        synchronized(connections) {
+            PooledConnection pooled = connections.get(filename);
+            if(pooled == null) {
+                try {
+                    File DBFile = new File(SignShop.getInstance().getDataFolder(), filename);
+                    Connection connection = driver.connect("jdbc:sqlite:" + DBFile.getPath(), new Properties());
+                    if(connection == null)
+                        return false;
+                    pooled = new PooledConnection(connection);
+                    connections.put(filename, pooled);
+                } catch (SQLException ignored) {
+                    return false;
+                }
+                // Commits in WAL mode only have to sync the log, which is safe against crashes of the server
+                enablePragma(pooled, "journal_mode", "WAL");
+                enablePragma(pooled, "synchronous", "NORMAL");
+            }
+            conn = pooled;
+        }
+        return true;
+    }
 
+    private void enablePragma(PooledConnection pooled, String pragma, String value) {
+        try(Statement st = pooled.connection.createStatement()) {
+            st.execute("PRAGMA " + pragma + "=" + value + ";");
+        } catch (SQLException ex) {
+            SignShop.log("Could not set " + pragma + " to " + value + " on " + filename + " because: " + ex.getMessage(), Level.WARNING);
         }
-        return (conn != null);
     }
 
+    /**
+     * Releases this handle, the connection itself stays open for the next user of the same database
+     */
     public void close() {
-        if (conn == null || driver == null)
-            return;
-        try {
-            conn.close();
-        } catch (SQLException ignored) {
+        conn = null;
+    }
+
+    /**
+     * Closes the connection to this database for every user, for instance before the file is moved
+     */
+    public void disconnect() {
+        synchronized(connections) {
+            PooledConnection pooled = connections.remove(filename);
+            if(pooled != null) {
+                synchronized(pooled) {
+                    pooled.close();
+                }
+            }
         }
+        conn = null;
     }
 
-    public Object runStatement(String Query, Map<Integer, Object> params, Boolean expectingResult) {
-        try {
-            if(conn == null) {
-                SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
+    /**
+     * Closes the connections to all databases, to be called when the plugin is disabled
+     */
+    public static void closeAll() {
+        synchronized(connections) {
+            for(PooledConnection pooled : connections.values()) {
+                synchronized(pooled) {
+                    pooled.close();
+                }
+            }
+            connections.clear();
+        }
+    }
+
+    /**
+     * @return The schema version stored in the database, 0 for databases that were never migrated or -1 on failure
+     */
+    public int getSchemaVersion() {
+        Integer version = query("PRAGMA user_version;", null, result -> (result.next() ? result.getInt(1) : 0));
+        return (version == null ? -1 : version);
+    }
+
+    /**
+     * Brings the schema of this database up to date. The migration at index n upgrades the schema from version n to
+     * version n + 1, each of them runs in a transaction of its own together with the update of PRAGMA user_version.
+     * Migrations must never be changed or removed once released, only new ones may be added.
+     *
+     * @param migrations All migrations of this database, in order
+     * @return False if the database could not be brought up to date
+     */
+    public boolean migrate(List<Migration> migrations) {
+        int version = getSchemaVersion();
+        if(version < 0)
+            return false;
+        if(version > migrations.size()) {
+            SignShop.log(filename + " has schema version " + version + " which is newer than this version of SignShop supports.", Level.WARNING);
+            return true;
+        }
+        for(int i = version; i < migrations.size(); i++) {
+            final Migration migration = migrations.get(i);
+            final int target = (i + 1);
+            boolean migrated = transaction(() -> {
+                migration.migrate(this);
+                update("PRAGMA user_version = " + target + ";", null);
+            });
+            if(!migrated) {
+                SignShop.log("Could not upgrade " + filename + " to schema version " + target + ".", Level.SEVERE);
+                return false;
+            }
+            SignShop.log("Upgraded " + filename + " to schema version " + target + ".", Level.INFO);
+        }
+        return true;
+    }
+
+    /**
+     * Runs a statement that does not return rows
+     *
+     * @return The id of the last inserted row or the amount of changed rows
+     * @throws SQLException If the statement failed
+     */
+    public int update(String Query, Map<Integer, Object> params) throws SQLException {
+        Object result = runStatement(Query, params, false);
+        if(result == null)
+            throw new SQLException("Query failed: " + Query);
+        return (Integer) result;
+    }
+
+    /**
+     * Runs a query and hands its result to the given handler, both the statement and the result are cleaned up
+     * afterwards so the result must not be kept around
+     *
+     * @param Query Query to run
+     * @param params Parameters by index, may be null
+     * @param handler Reads the result
+     * @param <T> Type of the value read from the result
+     * @return What the handler returned, or null if the query failed
+     */
+    public <T> T query(String Query, Map<Integer, Object> params, ResultHandler<T> handler) {
+        PooledConnection pooled = conn;
+        if(pooled == null) {
+            SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
+            return null;
+        }
+        synchronized(pooled) {
+            try {
+                PreparedStatement st = pooled.prepare(Query);
+                bind(st, params);
+                try(ResultSet result = st.executeQuery()) {
+                    return handler.handle(result);
+                }
+            } catch(SQLException ex) {
+                SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
                 return null;
             }
-            PreparedStatement st = conn.prepareStatement(Query, PreparedStatement.RETURN_GENERATED_KEYS);
-
-            if(params != null && !params.isEmpty()) {
-                for(Map.Entry<Integer, Object> param : params.entrySet()) {
-                    if(param.getValue().getClass().equals(int.class) || param.getValue().getClass().equals(Integer.class)) {
-                        st.setInt(param.getKey(), ((Integer)param.getValue()));
-                    } else if(param.getValue().getClass().equals(String.class)) {
-                        st.setString(param.getKey(), ((String)param.getValue()));
-                    }
+        }
+    }
+
+    /**
+     * Runs the given work in a single transaction, no other thread can use the database in the meantime.
+     * The transaction is rolled back if the work throws.
+     *
+     * @param work Statements to run
+     * @return True if the transaction was committed
+     */
+    public boolean transaction(Transaction work) {
+        PooledConnection pooled = conn;
+        if(pooled == null)
+            return false;
+        synchronized(pooled) {
+            try {
+                pooled.connection.setAutoCommit(false);
+                try {
+                    work.run();
+                    pooled.connection.commit();
+                    return true;
+                } catch(SQLException | RuntimeException ex) {
+                    pooled.connection.rollback();
+                    SignShop.log("Transaction on " + filename + " was rolled back because: " + ex.getMessage(), Level.WARNING);
+                    return false;
+                } finally {
+                    pooled.connection.setAutoCommit(true);
                 }
+            } catch(SQLException ex) {
+                SignShop.log("Transaction on " + filename + " failed because: " + ex.getMessage(), Level.WARNING);
+                return false;
             }
-            if(expectingResult) {
-                return st.executeQuery();
-            } else {
+        }
+    }
+
+    /**
+     * Runs a statement. Queries return a ResultSet that closes its statement when it is closed, updates return the id
+     * of the last inserted row or the amount of changed rows. Prefer {@link #query} for queries.
+     *
+     * @return The result, or null if the statement failed
+     */
+    public Object runStatement(String Query, Map<Integer, Object> params, Boolean expectingResult) {
+        PooledConnection pooled = conn;
+        if(pooled == null) {
+            SignShop.log("Query: " + Query + " could not be run because the connection to: " + filename + " could not be established", Level.WARNING);
+            return null;
+        }
+        synchronized(pooled) {
+            try {
+                if(expectingResult) {
+                    // The caller owns the result, so it can not share a cached statement
+                    PreparedStatement st = pooled.connection.prepareStatement(Query);
+                    bind(st, params);
+                    st.closeOnCompletion();
+                    return st.executeQuery();
+                }
+
+                PreparedStatement st = pooled.prepare(Query);
+                bind(st, params);
                 int result = st.executeUpdate();
-                ResultSet genKeys = st.getGeneratedKeys();
-                if(genKeys == null)
-                    return result;
-                else {
-                    try {
-                        return genKeys.getInt("last_insert_rowid()");
-                    } catch(SQLException ex) {
-                        SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
+                try(ResultSet genKeys = st.getGeneratedKeys()) {
+                    if(genKeys == null)
                         return result;
-                    }
+                    return genKeys.getInt("last_insert_rowid()");
+                } catch(SQLException ex) {
+                    SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
+                    return result;
                 }
+            } catch(SQLException ex) {
+                SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
+                return null;
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement st, Map<Integer, Object> params) throws SQLException {
+        st.clearParameters();
+        if(params == null || params.isEmpty())
+            return;
+        for(Map.Entry<Integer, Object> param : params.entrySet()) {
+            if(param.getValue().getClass().equals(int.class) || param.getValue().getClass().equals(Integer.class)) {
+                st.setInt(param.getKey(), ((Integer)param.getValue()));
+            } else if(param.getValue().getClass().equals(String.class)) {
+                st.setString(param.getKey(), ((String)param.getValue()));
+            }
+        }
+    }
+
+    public interface ResultHandler<T> {
+        T handle(ResultSet result) throws SQLException;
+    }
+
+    public interface Transaction {
+        void run() throws SQLException;
+    }
+
+    public interface Migration {
+        void migrate(SSDatabase db) throws SQLException;
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        // Least recently used statements are closed once the cache is full
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(statementCacheSize, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() <= statementCacheSize)
+                    return false;
+                closeStatement(eldest.getValue());
+                return true;
+            }
+        };
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        private PreparedStatement prepare(String query) throws SQLException {
+            PreparedStatement st = statements.get(query);
+            if(st == null || st.isClosed()) {
+                st = connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+                statements.put(query, st);
+            }
+            return st;
+        }
+
+        private void close() {
+            for(PreparedStatement st : statements.values())
+                closeStatement(st);
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+
+        private static void closeStatement(PreparedStatement st) {
+            try {
+                st.close();
+            } catch (SQLException ignored) {
             }
-        } catch(SQLException ex) {
-            SignShop.log("Query: " + Query + " threw exception: " + ex.getMessage(), Level.WARNING);
-            return null;
         }
     }
 }
@@ -0,0 +1,40 @@
+package org.wargamer2010.signshop.blocks;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Immutable item shared by every shop that stores the exact same stack. Instances are only handed out by
+ * {@link ItemDictionary}, so two shops selling the same item hold the same SharedItem.
+ */
+public final class SharedItem {
+    private final String encoded;
+    private final ItemStack item;
+
+    SharedItem(String encoded, ItemStack item) {
+        this.encoded = encoded;
+        this.item = item;
+    }
+
+    /**
+     * @return The stored form of this item, which is also its key in the dictionary
+     */
+    public String getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * @return A copy of the item that may be modified freely
+     */
+    public ItemStack getItem() {
+        return item.clone();
+    }
+
+    /**
+     * Returns the shared instance itself, which is used by every shop holding this item and must never be modified
+     *
+     * @return The shared item
+     */
+    public ItemStack getSharedItem() {
+        return item;
+    }
+}
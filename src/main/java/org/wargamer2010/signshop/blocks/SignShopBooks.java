@@ -1,18 +1,36 @@
 package org.wargamer2010.signshop.blocks;
 
 import org.bukkit.inventory.ItemStack;
-import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.logging.Level;
 
 public class SignShopBooks {
     private static final char pageSeperator = (char)3;
+    private static final char fieldSeperator = (char)0;
+    private static final int cacheSize = 1024;
+    // Most recently used BookIDs by content hash
+    private static final Map<String, Integer> bookIds = new LinkedHashMap<String, Integer>(cacheSize, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    });
     private static final String filename = "books.db";
 
     private SignShopBooks() {
@@ -21,42 +39,92 @@ public class SignShopBooks {
 
     public static void init() {
         SSDatabase db = new SSDatabase(filename);
-
-        if(!db.tableExists("Book")) {
-            db.runStatement("CREATE TABLE Book ( BookID INTEGER, Title TEXT NOT NULL, Author VARCHAR(200) NOT NULL, Pages TEXT, "
-                    + "Generation INTEGER NOT NULL DEFAULT -1, PRIMARY KEY(BookID) )", null, false);
-            db.close();
-        } else if(!db.columnExists("Generation")) {
-            db.open();
-            db.runStatement("ALTER TABLE Book ADD COLUMN Generation INTEGER NOT NULL DEFAULT -1;", null, false);
+        try {
+            db.migrate(DatabaseSchema.books);
+        } finally {
             db.close();
         }
     }
 
-    public static void addBook(ItemStack bookStack) {
-        Integer tempID = getBookID(bookStack);
-        if(tempID > -1)
-            return;
+    /**
+     * Identifies a book by its contents, two books with the same hash are considered the same book
+     *
+     * @return Hex encoded SHA-256 of all fields of the book, with the pages as they are stored
+     */
+    public static String getContentHash(String title, String author, String pages, int generation) {
+        return getContentHash(title, author, new String[] { pages }, generation);
+    }
 
-        SSDatabase db = new SSDatabase(filename);
-        IBookItem item = BookFactory.getBookItem(bookStack);
-        Map<Integer, Object> pars = new LinkedHashMap<>();
-        pars.put(1, (item.getTitle() == null) ? "" : item.getTitle());
-        pars.put(2, (item.getAuthor() == null) ? "" : item.getAuthor());
-        pars.put(3, signshopUtil.implode(item.getPages(), String.valueOf(pageSeperator)));
+    /**
+     * Same as {@link #getContentHash(String, String, String, int)}, without joining the pages first
+     */
+    public static String getContentHash(String title, String author, String[] pages, int generation) {
+        MessageDigest digest = digests.get();
+        update(digest, title);
+        digest.update((byte) fieldSeperator);
+        update(digest, author);
+        digest.update((byte) fieldSeperator);
+        if(pages != null) {
+            for(int i = 0; i < pages.length; i++) {
+                if(i > 0)
+                    digest.update((byte) pageSeperator);
+                update(digest, pages[i]);
+            }
+        }
+        digest.update((byte) fieldSeperator);
+        update(digest, Integer.toString(generation));
+
+        byte[] hash = digest.digest();
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for(byte b : hash)
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return builder.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if(value != null)
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getContentHash(IBookItem item) {
         Integer gen = item.getGeneration();
-        pars.put(4, gen == null ? -1 : gen);
+        return getContentHash(item.getTitle(), item.getAuthor(), item.getPages(), gen == null ? -1 : gen);
+    }
 
+    public static void addBook(ItemStack bookStack) {
+        if(!itemUtil.isWriteableBook(bookStack))
+            return;
 
+        IBookItem item = BookFactory.getBookItem(bookStack);
+        String hash = getContentHash(item);
+        SSDatabase db = new SSDatabase(filename);
         try {
-            Integer ID = (Integer) db.runStatement("INSERT INTO Book(Title, Author, Pages, Generation) VALUES (?, ?, ?, ?);", pars, false);
+            if(getBookID(db, hash) > -1)
+                return;
+
+            Map<Integer, Object> pars = new LinkedHashMap<>();
+            pars.put(1, (item.getTitle() == null) ? "" : item.getTitle());
+            pars.put(2, (item.getAuthor() == null) ? "" : item.getAuthor());
+            pars.put(3, signshopUtil.implode(item.getPages(), String.valueOf(pageSeperator)));
+            Integer gen = item.getGeneration();
+            pars.put(4, gen == null ? -1 : gen);
+            pars.put(5, hash);
+
+            Integer ID = (Integer) db.runStatement("INSERT INTO Book(Title, Author, Pages, Generation, ContentHash) VALUES (?, ?, ?, ?, ?);", pars, false);
+            if(ID != null) {
+                synchronized(bookIds) {
+                    bookIds.put(hash, ID);
+                }
+            }
         } finally {
             db.close();
         }
-
     }
 
     public static void removeBook(Integer id) {
+        synchronized(bookIds) {
+            bookIds.values().removeIf(id::equals);
+        }
         SSDatabase db = new SSDatabase(filename);
         Map<Integer, Object> pars = new LinkedHashMap<>();
         pars.put(1, id);
@@ -71,51 +139,52 @@ public class SignShopBooks {
         if(!itemUtil.isWriteableBook(bookStack))
             return -1;
 
+        String hash = getContentHash(BookFactory.getBookItem(bookStack));
         SSDatabase db = new SSDatabase(filename);
-        IBookItem item = BookFactory.getBookItem(bookStack);
-        Map<Integer, Object> pars = new LinkedHashMap<>();
-        pars.put(1, (item.getTitle() == null) ? "" : item.getTitle());
-        pars.put(2, (item.getAuthor() == null) ? "" : item.getAuthor());
-        pars.put(3, signshopUtil.implode(item.getPages(), String.valueOf(pageSeperator)));
-        Integer gen = item.getGeneration();
-        pars.put(4, gen == null ? -1 : gen);
-        Integer ID = null;
-
         try {
-            ResultSet set = (ResultSet)db.runStatement("SELECT BookID FROM Book WHERE Title = ? AND Author = ? AND Pages = ? AND Generation = ?;", pars, true);
-            if(set != null && set.next())
-                ID = set.getInt("BookID");
-            else
-                ID = -1;
-        } catch (SQLException ex) {
-            SignShop.log("BookID was not found in result from SELECT query.", Level.WARNING);
+            return getBookID(db, hash);
         } finally {
             db.close();
         }
+    }
 
+    private static int getBookID(SSDatabase db, String hash) {
+        synchronized(bookIds) {
+            Integer cached = bookIds.get(hash);
+            if(cached != null)
+                return cached;
+        }
+
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, hash);
+        Integer ID = db.query("SELECT BookID FROM Book WHERE ContentHash = ?;", pars,
+                set -> (set.next() ? set.getInt("BookID") : -1));
         if(ID == null)
             return -1;
-        else
-            return ID;
+        // Unknown books are cached as well, addBook replaces them once they are stored
+        synchronized(bookIds) {
+            bookIds.put(hash, ID);
+        }
+        return ID;
     }
 
     public static ItemStack addBooksProps(ItemStack bookStack, Integer id) {
         SSDatabase db = new SSDatabase(filename);
         Map<Integer, Object> pars = new LinkedHashMap<>();
         pars.put(1, id);
-        ResultSet set = (ResultSet)db.runStatement("SELECT * FROM Book WHERE BookID = ?", pars, true);
-        if(set == null)
-            return bookStack;
-        IBookItem item = null;
+        IBookItem item;
         try {
-            item = BookFactory.getBookItem(bookStack);
-            item.setAuthor(set.getString("Author"));
-            item.setTitle(set.getString("Title"));
-            item.setPages(set.getString("Pages").split(String.valueOf(pageSeperator)));
-            int gen = set.getInt("Generation");
-            item.setGeneration(gen == -1 ? null : set.getInt("Generation"));
-        } catch (SQLException ignored) {
-
+            item = db.query("SELECT * FROM Book WHERE BookID = ?", pars, set -> {
+                if(!set.next())
+                    return null;
+                IBookItem book = BookFactory.getBookItem(bookStack);
+                book.setAuthor(set.getString("Author"));
+                book.setTitle(set.getString("Title"));
+                book.setPages(set.getString("Pages").split(String.valueOf(pageSeperator)));
+                int gen = set.getInt("Generation");
+                book.setGeneration(gen == -1 ? null : gen);
+                return book;
+            });
         } finally {
             db.close();
         }
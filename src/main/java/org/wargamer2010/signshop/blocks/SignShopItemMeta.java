@@ -2,6 +2,7 @@
 package org.wargamer2010.signshop.blocks;
 
 import com.google.common.collect.ImmutableList;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Color;
 import org.bukkit.FireworkEffect;
@@ -11,15 +12,18 @@ import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.*;
 import org.bukkit.potion.*;
+import org.bukkit.scheduler.BukkitTask;
+import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.configuration.ColorUtil;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.util.SSTimeUtil;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
 
 
 public class SignShopItemMeta {
@@ -28,6 +32,21 @@ public class SignShopItemMeta {
     private static final String innerListSeperator = "^";
     private static final String filename = "books.db";
 
+    private static final int propertiesPerInsert = 100;
+    private static final MetaWriter metaWriter = new MetaWriter();
+    private static final int nameCacheSize = 1024;
+    // Most recently shown names of items with meta, guarded by itself
+    private static final Map<NameKey, String> names = new LinkedHashMap<NameKey, String>(nameCacheSize, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<NameKey, String> eldest) {
+            return size() > nameCacheSize;
+        }
+    };
+    private static long nameHits = 0;
+    private static long nameMisses = 0;
+
     private static  ChatColor txtColor = ChatColor.YELLOW;
     private static  ChatColor txtColorTwo = ChatColor.DARK_PURPLE;
     
@@ -39,14 +58,21 @@ public class SignShopItemMeta {
         SSDatabase db = new SSDatabase(filename);
         txtColor = SignShopConfig.getTextColor();
         txtColorTwo = SignShopConfig.getTextColorTwo();
+        clearNames();
         try {
-            if(!db.tableExists("ItemMeta"))
-                db.runStatement("CREATE TABLE ItemMeta ( ItemMetaID INTEGER, ItemMetaHash INT, PRIMARY KEY(ItemMetaID) )", null, false);
-            if(!db.tableExists("MetaProperty"))
-                db.runStatement("CREATE TABLE MetaProperty ( PropertyID INTEGER, ItemMetaID INTEGER, PropertyName TEXT NOT NULL, ProperyValue TEXT NOT NULL, PRIMARY KEY(PropertyID) )", null, false);
+            // Shares books.db with SignShopBooks, so it shares the schema as well
+            db.migrate(DatabaseSchema.books);
         } finally {
             db.close();
         }
+        metaWriter.start();
+    }
+
+    /**
+     * Stores all queued metas on the calling thread and stops the background writer
+     */
+    public static void dispose() {
+        metaWriter.stop();
     }
 
     public static String convertColorsToDisplay(List<Color> colors) {
@@ -113,7 +139,55 @@ public class SignShopItemMeta {
         return displayname;
     }
 
+    /**
+     * Returns the name of an item as shown in messages, names of items with meta are cached
+     *
+     * @param stack Item to name, its amount is ignored
+     * @return Name of the item
+     */
     public static String getName(ItemStack stack) {
+        if (!stack.hasItemMeta())
+            return buildName(stack);
+        NameKey key = new NameKey(stack);
+        synchronized (names) {
+            String name = names.get(key);
+            if (name != null) {
+                nameHits++;
+                return name;
+            }
+            nameMisses++;
+        }
+        // Built outside the lock, shulker boxes look up the names of their contents
+        String name = buildName(stack);
+        synchronized (names) {
+            names.put(key, name);
+        }
+        return name;
+    }
+
+    /**
+     * Forgets all cached names, to be called when the language or colors may have changed
+     */
+    public static void clearNames() {
+        synchronized (names) {
+            names.clear();
+            nameHits = 0;
+            nameMisses = 0;
+        }
+    }
+
+    /**
+     * @return Size and hit rate of the name cache since the last reload
+     */
+    public static String getNameCacheStats() {
+        synchronized (names) {
+            long lookups = (nameHits + nameMisses);
+            long rate = (lookups == 0 ? 0 : Math.round((nameHits * 100.0d) / lookups));
+            return (names.size() + " names, " + nameHits + " hits, " + nameMisses + " misses (" + rate + "% hit rate)");
+        }
+    }
+
+    private static String buildName(ItemStack stack) {
         if (hasNoMeta(stack))
             return getDisplayName(stack);
 
@@ -264,17 +338,13 @@ public class SignShopItemMeta {
             Map<Integer, Object> pars = new LinkedHashMap<>();
             pars.put(1, ID);
 
-            ResultSet setprops = (ResultSet)db.runStatement("SELECT PropertyName, ProperyValue FROM MetaProperty WHERE ItemMetaID = ?;", pars, true);
-            if(setprops == null)
-                return;
-            try {
+            Boolean read = db.query("SELECT PropertyName, ProperyValue FROM MetaProperty WHERE ItemMetaID = ?;", pars, setprops -> {
                 while(setprops.next())
                     metamap.put(setprops.getString("PropertyName"), setprops.getString("ProperyValue"));
-            } catch(SQLException ex) {
-                return;
-            }
+                return true;
+            });
 
-            if(metamap.isEmpty())
+            if(read == null || metamap.isEmpty())
                 return;
         } finally {
             db.close();
@@ -344,38 +414,18 @@ public class SignShopItemMeta {
         stack.setItemMeta(meta);
     }
 
+    /**
+     * Queues the meta of the stack to be stored, unless an identical meta is stored already.
+     * Comparing and storing happens on a background thread.
+     *
+     * @param stack Stack to store the meta of
+     */
     public static void storeMeta(ItemStack stack) {
         if (hasNoMeta(stack))
             return;
 
-        SSDatabase db = new SSDatabase(filename);
-        Map<String, String> metamap = getMetaAsMap(stack.getItemMeta());
-
-        try {
-            Integer existingID = getMetaID(stack, metamap);
-            if(existingID > -1)
-                return;
-
-            Integer itemmetaid;
-            Map<Integer, Object> pars = new LinkedHashMap<>();
-            pars.put(1, metamap.hashCode());
-
-            itemmetaid = (Integer)db.runStatement("INSERT INTO ItemMeta(ItemMetaHash) VALUES (?);", pars, false);
-
-            if(itemmetaid == null || itemmetaid == -1)
-                return;
-
-            for(Map.Entry<String, String> metaproperty : metamap.entrySet()) {
-                pars.clear();
-                pars.put(1, itemmetaid);
-                pars.put(2, metaproperty.getKey());
-                pars.put(3, metaproperty.getValue());
-                db.runStatement("INSERT INTO MetaProperty(ItemMetaID, PropertyName, ProperyValue) VALUES (?, ?, ?);", pars, false);
-            }
-
-        } finally {
-            db.close();
-        }
+        // getItemMeta hands out a copy, so it may be read on another thread
+        metaWriter.queue(stack.getItemMeta());
     }
 
     public static Integer getMetaID(ItemStack stack) {
@@ -387,20 +437,17 @@ public class SignShopItemMeta {
 
     private static Integer getMetaID(ItemStack stack, Map<String, String> pMetamap) {
         Map<String, String> metamap = (pMetamap != null ? pMetamap : getMetaAsMap(stack.getItemMeta()));
+        // The meta may still be waiting to be written
+        metaWriter.run();
         SSDatabase db = new SSDatabase(filename);
         try {
             Map<Integer, Object> pars = new LinkedHashMap<>();
             pars.put(1, metamap.hashCode());
-            ResultSet set = (ResultSet)db.runStatement("SELECT ItemMetaID FROM ItemMeta WHERE ItemMetaHash = ?;", pars, true);
-            if(set != null && set.next())
-                return set.getInt("ItemMetaID");
-        } catch (SQLException ignored) {
-
+            Integer ID = db.query("SELECT ItemMetaID FROM ItemMeta WHERE ItemMetaHash = ?;", pars, set -> (set.next() ? set.getInt("ItemMetaID") : -1));
+            return (ID == null ? -1 : ID);
         } finally {
             db.close();
         }
-
-        return -1;
     }
 
     public static Map<String, String> getMetaAsMap(ItemMeta meta) {
@@ -621,4 +668,143 @@ public class SignShopItemMeta {
         Bundle,
         BlockState,
     }
+
+    /**
+     * Everything a name depends on: the fingerprint of the item, the language and the text colors
+     */
+    private static class NameKey {
+        private final ItemFingerprint item;
+        private final String language;
+        private final ChatColor color;
+        private final ChatColor colorTwo;
+        private final int hash;
+
+        private NameKey(ItemStack stack) {
+            item = ItemFingerprint.of(stack);
+            language = SignShopConfig.getPreferredLanguage();
+            color = txtColor;
+            colorTwo = txtColorTwo;
+            hash = Objects.hash(item, language, color, colorTwo);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+            if (!(other instanceof NameKey))
+                return false;
+            NameKey key = (NameKey) other;
+            return (hash == key.hash && color == key.color && colorTwo == key.colorTwo && Objects.equals(language, key.language)
+                    && item.equals(key.item));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Stores queued metas in the background, all metas queued since the last run are inserted in one transaction.
+     * The hashes of stored metas are kept in memory, so metas that are known already never reach the database.
+     */
+    private static class MetaWriter {
+        private final LinkedBlockingQueue<ItemMeta> pending = new LinkedBlockingQueue<>();
+        // Only used while holding the lock of the writer
+        private Set<Integer> knownHashes = null;
+        // Metas of a failed run, retried before anything queued later
+        private final List<ItemMeta> failed = new ArrayList<>();
+        private BukkitTask task = null;
+
+        private void queue(ItemMeta meta) {
+            pending.add(meta);
+        }
+
+        private synchronized void start() {
+            if(task == null)
+                task = Bukkit.getScheduler().runTaskTimerAsynchronously(SignShop.getInstance(), this::run, 1, 1);
+        }
+
+        private void stop() {
+            synchronized(this) {
+                if(task != null)
+                    task.cancel();
+                task = null;
+            }
+            run();
+        }
+
+        private synchronized void run() {
+            if(pending.isEmpty() && failed.isEmpty())
+                return;
+            List<ItemMeta> metas = new ArrayList<>(failed);
+            failed.clear();
+            pending.drainTo(metas);
+
+            SSDatabase db = new SSDatabase(filename);
+            try {
+                if(knownHashes == null)
+                    knownHashes = loadHashes(db);
+                if(knownHashes == null) {
+                    SignShop.log("Could not read the stored item metas, will try again.", Level.WARNING);
+                    failed.addAll(metas);
+                    return;
+                }
+
+                Map<Integer, Map<String, String>> toStore = new LinkedHashMap<>();
+                for(ItemMeta meta : metas) {
+                    Map<String, String> metamap = getMetaAsMap(meta);
+                    if(!knownHashes.contains(metamap.hashCode()))
+                        toStore.put(metamap.hashCode(), metamap);
+                }
+                if(toStore.isEmpty())
+                    return;
+
+                boolean stored = db.transaction(() -> {
+                    for(Map.Entry<Integer, Map<String, String>> entry : toStore.entrySet())
+                        insertMeta(db, entry.getKey(), entry.getValue());
+                });
+                if(stored) {
+                    knownHashes.addAll(toStore.keySet());
+                } else {
+                    SignShop.log("Could not store the meta of " + toStore.size() + " items, will try again.", Level.WARNING);
+                    failed.addAll(metas);
+                }
+            } finally {
+                db.close();
+            }
+        }
+
+        private static Set<Integer> loadHashes(SSDatabase db) {
+            return db.query("SELECT ItemMetaHash FROM ItemMeta;", null, set -> {
+                Set<Integer> hashes = new HashSet<>();
+                while(set.next())
+                    hashes.add(set.getInt("ItemMetaHash"));
+                return hashes;
+            });
+        }
+
+        private static void insertMeta(SSDatabase db, int hash, Map<String, String> metamap) throws SQLException {
+            Map<Integer, Object> pars = new LinkedHashMap<>();
+            pars.put(1, hash);
+            int itemmetaid = db.update("INSERT INTO ItemMeta(ItemMetaHash) VALUES (?);", pars);
+
+            // Several properties per statement, SQLite limits the amount of parameters so large metas take a few
+            List<Map.Entry<String, String>> properties = new ArrayList<>(metamap.entrySet());
+            for(int start = 0; start < properties.size(); start += propertiesPerInsert) {
+                List<Map.Entry<String, String>> batch = properties.subList(start, Math.min(start + propertiesPerInsert, properties.size()));
+                StringBuilder query = new StringBuilder("INSERT INTO MetaProperty(ItemMetaID, PropertyName, ProperyValue) VALUES ");
+                pars.clear();
+                for(Map.Entry<String, String> metaproperty : batch) {
+                    if(!pars.isEmpty())
+                        query.append(", ");
+                    query.append("(?, ?, ?)");
+                    pars.put(pars.size() + 1, itemmetaid);
+                    pars.put(pars.size() + 1, metaproperty.getKey());
+                    pars.put(pars.size() + 1, metaproperty.getValue());
+                }
+                db.update(query.append(";").toString(), pars);
+            }
+        }
+    }
 }
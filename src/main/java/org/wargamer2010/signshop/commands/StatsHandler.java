@@ -8,6 +8,7 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.Vault;
+import org.wargamer2010.signshop.blocks.SignShopItemMeta;
 import org.wargamer2010.signshop.configuration.Storage;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.util.signshopUtil;
@@ -45,6 +46,7 @@ public class StatsHandler implements ICommandHandler {
             message += "SignShop Guardian version: " + signshopGuardian.getDescription().getVersion() + "\n";
 
         message = message
+                + "Item name cache: " + SignShopItemMeta.getNameCacheStats() + "\n"
                 + "Vault version: " + Vault.getVersion() + "\n"
                 + "SignShop Authors: " + pdfFile.getAuthors().toString().replace("[", "").replace("]", "") + "\n"
                 + "SignShop Home: http://tiny.cc/signshop3" + "\n";
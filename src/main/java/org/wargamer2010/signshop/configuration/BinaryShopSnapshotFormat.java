@@ -0,0 +1,391 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.wargamer2010.signshop.SignShop;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * Compact binary snapshot format, an alternative to sellers.yml.
+ * Coordinates are stored as varints, worlds, owners and setting names are stored once in a table and items are
+ * stored once per distinct item in a dictionary, as raw bytes instead of Base64.
+ * Everything Storage writes survives a round trip, so files can be converted to YAML and back without loss.
+ */
+public class BinaryShopSnapshotFormat implements ShopSnapshotFormat {
+    private static final int magic = 0x53534253; // SSBS
+    private static final int formatVersion = 1;
+
+    private static final int valueString = 0;
+    private static final int valueLocation = 1;
+    private static final int valueItem = 2;
+    private static final int valueOwner = 3;
+    private static final int valueWorld = 4;
+
+    private static final int itemString = 0;
+    private static final int itemLines = 1;
+    private static final int itemWindowsLines = 2;
+
+    private static final int ownerString = 0;
+    private static final int ownerUuid = 1;
+
+    @Override
+    public String getExtension() {
+        return "bin";
+    }
+
+    @Override
+    public ShopSnapshot read(File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer;
+            if(isWindows()) {
+                // Windows refuses to replace a file while it is mapped, and mappings are only released on GC
+                buffer = ByteBuffer.allocate((int) channel.size());
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer) < 0)
+                        break;
+                }
+                buffer.flip();
+            } else {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            return decode(buffer);
+        } catch(BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+            SignShop.log(file.getName() + " is truncated or corrupt.", Level.SEVERE);
+            return null;
+        }
+    }
+
+    private ShopSnapshot decode(ByteBuffer buffer) {
+        if(buffer.remaining() < 5 || buffer.getInt() != magic || buffer.get() != formatVersion)
+            return null;
+        int dataVersion = readVarInt(buffer);
+        long sequence = readVarLong(buffer);
+
+        String[] worlds = readStringTable(buffer);
+        String[] names = readStringTable(buffer);
+
+        String[] owners = new String[readLength(buffer)];
+        for(int i = 0; i < owners.length; i++) {
+            int kind = buffer.get();
+            owners[i] = (kind == ownerUuid ? new UUID(buffer.getLong(), buffer.getLong()).toString() : readString(buffer));
+        }
+
+        String[] items = new String[readLength(buffer)];
+        for(int i = 0; i < items.length; i++) {
+            int kind = buffer.get();
+            if(kind == itemString) {
+                items[i] = readString(buffer);
+            } else {
+                byte[] raw = new byte[readLength(buffer)];
+                buffer.get(raw);
+                items[i] = Base64Coder.encodeLines(raw, 0, raw.length, 76, (kind == itemWindowsLines ? "\r\n" : "\n"));
+            }
+        }
+
+        int shopCount = readLength(buffer);
+        Map<String, Map<String, Object>> shops = new LinkedHashMap<>(shopCount * 2);
+        for(int i = 0; i < shopCount; i++) {
+            String key = readString(buffer);
+            int settingCount = readLength(buffer);
+            Map<String, Object> settings = new LinkedHashMap<>(settingCount * 2);
+            for(int j = 0; j < settingCount; j++) {
+                String name = names[readVarInt(buffer)];
+                boolean list = (buffer.get() != 0);
+                int valueCount = readLength(buffer);
+                List<String> values = new ArrayList<>(valueCount);
+                for(int k = 0; k < valueCount; k++)
+                    values.add(readValue(buffer, worlds, owners, items));
+                if(list)
+                    settings.put(name, values);
+                else if(!values.isEmpty())
+                    settings.put(name, values.get(0));
+            }
+            shops.put(key, settings);
+        }
+        return new ShopSnapshot(shops, sequence, dataVersion);
+    }
+
+    private String readValue(ByteBuffer buffer, String[] worlds, String[] owners, String[] items) {
+        int tag = buffer.get();
+        switch(tag) {
+            case valueLocation:
+                int x = readZigZag(buffer);
+                int y = readZigZag(buffer);
+                int z = readZigZag(buffer);
+                return x + "/" + y + "/" + z + "/" + worlds[readVarInt(buffer)];
+            case valueItem:
+                return items[readVarInt(buffer)];
+            case valueOwner:
+                return owners[readVarInt(buffer)];
+            case valueWorld:
+                return worlds[readVarInt(buffer)];
+            default:
+                return readString(buffer);
+        }
+    }
+
+    @Override
+    public byte[] encode(Map<String, ? extends Map<String, Object>> shops, long sequence) {
+        Map<String, Integer> worlds = new LinkedHashMap<>();
+        Map<String, Integer> names = new LinkedHashMap<>();
+        Map<String, Integer> owners = new LinkedHashMap<>();
+        Map<String, Integer> items = new LinkedHashMap<>();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(shops.size() * 64);
+        writeVarInt(body, shops.size());
+        for(Map.Entry<String, ? extends Map<String, Object>> shop : shops.entrySet()) {
+            writeString(body, shop.getKey());
+            writeVarInt(body, shop.getValue().size());
+            for(Map.Entry<String, Object> setting : shop.getValue().entrySet()) {
+                String name = setting.getKey();
+                List<String> values = toList(setting.getValue());
+                writeVarInt(body, intern(names, name));
+                body.write(isList(setting.getValue()) ? 1 : 0);
+                writeVarInt(body, values.size());
+                for(String value : values)
+                    writeValue(body, name, value, worlds, owners, items);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + items.size() * 256 + 1024);
+        writeInt(out, magic);
+        out.write(formatVersion);
+        writeVarInt(out, SignShop.DATA_VERSION);
+        writeVarLong(out, sequence);
+        writeStringTable(out, worlds.keySet());
+        writeStringTable(out, names.keySet());
+
+        writeVarInt(out, owners.size());
+        for(String owner : owners.keySet()) {
+            UUID uuid = parseUuid(owner);
+            if(uuid != null) {
+                out.write(ownerUuid);
+                writeLong(out, uuid.getMostSignificantBits());
+                writeLong(out, uuid.getLeastSignificantBits());
+            } else {
+                out.write(ownerString);
+                writeString(out, owner);
+            }
+        }
+
+        writeVarInt(out, items.size());
+        for(String item : items.keySet())
+            writeItem(out, item);
+
+        byte[] shopBytes = body.toByteArray();
+        out.write(shopBytes, 0, shopBytes.length);
+        return out.toByteArray();
+    }
+
+    private void writeValue(ByteArrayOutputStream out, String name, String value, Map<String, Integer> worlds,
+                            Map<String, Integer> owners, Map<String, Integer> items) {
+        switch(name) {
+            case "items":
+                out.write(valueItem);
+                writeVarInt(out, intern(items, value));
+                return;
+            case "owner":
+                out.write(valueOwner);
+                writeVarInt(out, intern(owners, value));
+                return;
+            case "shopworld":
+                out.write(valueWorld);
+                writeVarInt(out, intern(worlds, value));
+                return;
+            case "sign":
+            case "containables":
+            case "activatables":
+                if(writeLocation(out, value, worlds))
+                    return;
+                break;
+            default:
+                break;
+        }
+        out.write(valueString);
+        writeString(out, value);
+    }
+
+    private boolean writeLocation(ByteArrayOutputStream out, String value, Map<String, Integer> worlds) {
+        String[] parts = value.split("/", 4);
+        if(parts.length != 4)
+            return false;
+        try {
+            int x = Integer.parseInt(parts[0]);
+            int y = Integer.parseInt(parts[1]);
+            int z = Integer.parseInt(parts[2]);
+            // Only store it as a location when it reads back as the exact same string
+            if(!(x + "/" + y + "/" + z + "/" + parts[3]).equals(value))
+                return false;
+            out.write(valueLocation);
+            writeZigZag(out, x);
+            writeZigZag(out, y);
+            writeZigZag(out, z);
+            writeVarInt(out, intern(worlds, parts[3]));
+            return true;
+        } catch(NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private void writeItem(ByteArrayOutputStream out, String item) {
+        try {
+            byte[] raw = Base64Coder.decodeLines(item);
+            if(Base64Coder.encodeLines(raw, 0, raw.length, 76, "\n").equals(item)) {
+                out.write(itemLines);
+                writeBytes(out, raw);
+                return;
+            } else if(Base64Coder.encodeLines(raw, 0, raw.length, 76, "\r\n").equals(item)) {
+                out.write(itemWindowsLines);
+                writeBytes(out, raw);
+                return;
+            }
+        } catch(IllegalArgumentException ignored) {
+            // Not Base64, keep it as it is
+        }
+        out.write(itemString);
+        writeString(out, item);
+    }
+
+    private static int intern(Map<String, Integer> table, String value) {
+        Integer index = table.get(value);
+        if(index == null) {
+            index = table.size();
+            table.put(value, index);
+        }
+        return index;
+    }
+
+    private static boolean isList(Object value) {
+        return (value instanceof Collection || value instanceof Object[]);
+    }
+
+    private static List<String> toList(Object value) {
+        List<String> values = new ArrayList<>();
+        if(value instanceof Collection) {
+            for(Object entry : (Collection<?>) value) {
+                if(entry != null)
+                    values.add(entry.toString());
+            }
+        } else if(value instanceof Object[]) {
+            for(Object entry : (Object[]) value) {
+                if(entry != null)
+                    values.add(entry.toString());
+            }
+        } else if(value != null) {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    private static UUID parseUuid(String value) {
+        try {
+            UUID uuid = UUID.fromString(value);
+            return (uuid.toString().equals(value) ? uuid : null);
+        } catch(IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").startsWith("Windows");
+    }
+
+    private static String[] readStringTable(ByteBuffer buffer) {
+        String[] table = new String[readLength(buffer)];
+        for(int i = 0; i < table.length; i++)
+            table[i] = readString(buffer);
+        return table;
+    }
+
+    private static void writeStringTable(ByteArrayOutputStream out, Collection<String> table) {
+        writeVarInt(out, table.size());
+        for(String value : table)
+            writeString(out, value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readLength(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int readZigZag(ByteBuffer buffer) {
+        int value = readVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeZigZag(ByteArrayOutputStream out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a length or count, every byte or entry takes at least one byte, so larger values can only come from a
+     * corrupt file
+     */
+    private static int readLength(ByteBuffer buffer) {
+        long length = readVarLong(buffer);
+        if(length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid length " + length);
+        return (int) length;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            if(shift > 63)
+                throw new IllegalArgumentException("Malformed varint");
+            current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while((current & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+}
@@ -5,15 +5,36 @@ import org.bukkit.scheduler.BukkitRunnable;
 import org.wargamer2010.signshop.SignShop;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+/**
+ * Writes a FileConfiguration to disk off the main thread. Only the latest queued configuration is kept, and it is
+ * written once no new save has been queued for a short while, or once MaxSaveDelayMilliseconds has passed since the
+ * first pending save. Files are written to a temporary file first and then moved over the original.
+ */
 public class FileSaveWorker extends BukkitRunnable {
+    private static final long quietPeriod = 1000; // in ms
 
-    File ymlfile;
-    String fileName;
-    private final LinkedBlockingQueue<FileConfiguration> saveQueue = new LinkedBlockingQueue<>();
+    private final File ymlfile;
+    private final String fileName;
+    private final Object pendingLock = new Object();
+    private FileConfiguration pending = null;
+    private long firstQueued = 0;
+    private long lastQueued = 0;
+
+    private final AtomicLong savesWritten = new AtomicLong(0);
+    private final AtomicLong savesSkipped = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong lastSaveDuration = new AtomicLong(0);
+    private final AtomicLong totalSaveDuration = new AtomicLong(0);
 
     public FileSaveWorker(File ymlfile) {
         this.ymlfile = ymlfile;
@@ -22,51 +43,143 @@ public class FileSaveWorker extends BukkitRunnable {
 
     @Override
     public void run() {
-        if (!saveQueue.isEmpty()) {
-            saveToFile(saveQueue.poll());
+        FileConfiguration config;
+        synchronized (pendingLock) {
+            if (pending == null)
+                return;
+            long now = System.currentTimeMillis();
+            if (now - lastQueued < quietPeriod && now - firstQueued < SignShopConfig.getMaxSaveDelay())
+                return;
+            config = pending;
+            pending = null;
         }
+        saveNow(config);
     }
 
+    /**
+     * Queues the configuration to be written, replacing any configuration that has not been written yet
+     *
+     * @param config Configuration to write
+     */
     public void queueSave(FileConfiguration config) {
         if (config == null)
             return;
 
+        synchronized (pendingLock) {
+            long now = System.currentTimeMillis();
+            if (pending == null)
+                firstQueued = now;
+            else
+                savesSkipped.incrementAndGet();
+            pending = config;
+            lastQueued = now;
+        }
+    }
+
+    /**
+     * Writes the configuration on the calling thread
+     *
+     * @param config Configuration to write
+     * @return True if the file was written
+     */
+    public boolean saveNow(FileConfiguration config) {
+        return saveNow(config.saveToString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the given file contents on the calling thread
+     *
+     * @param data Contents to write
+     * @return True if the file was written
+     */
+    public synchronized boolean saveNow(byte[] data) {
+        long start = System.nanoTime();
         try {
-            saveQueue.put(config);
-        } catch (InterruptedException ex) {
-            SignShop.log("Failed to save " + fileName, Level.WARNING);
+            bytesWritten.addAndGet(writeAtomically(data));
+            savesWritten.incrementAndGet();
+            return true;
+        } catch (IOException ex) {
+            SignShop.log("Failed to save " + fileName + " because: " + ex.getMessage(), Level.WARNING);
+            return false;
+        } finally {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            lastSaveDuration.set(duration);
+            totalSaveDuration.addAndGet(duration);
         }
     }
 
-    private void saveToFile(FileConfiguration config) {
-        {
-            try {
-                config.save(ymlfile);
-            } catch (IOException ex) {
-                SignShop.log("Failed to save " + fileName, Level.WARNING);
-            }
+    /**
+     * Records a save that was superseded before it was written
+     */
+    public void markSkipped() {
+        savesSkipped.incrementAndGet();
+    }
+
+    private long writeAtomically(byte[] bytes) throws IOException {
+        File directory = ymlfile.getAbsoluteFile().getParentFile();
+        File temp = new File(directory, fileName + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), ymlfile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), ymlfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
+        return bytes.length;
     }
 
+    public long getSavesWritten() {
+        return savesWritten.get();
+    }
+
+    public long getSavesSkipped() {
+        return savesSkipped.get();
+    }
 
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return Duration of the last save in ms
+     */
+    public long getLastSaveDuration() {
+        return lastSaveDuration.get();
+    }
+
+    /**
+     * @return Combined duration of all saves in ms
+     */
+    public long getTotalSaveDuration() {
+        return totalSaveDuration.get();
+    }
+
+    /**
+     * Cancels the async task and writes the pending configuration, if any, on the calling thread
+     */
     public void stop() {
         try {
             this.cancel();
-
-            int count = 0;
-            while (!this.isCancelled() && count < 1000) {
-                //noinspection BusyWait
-                Thread.sleep(1);
-                count++;
-            }
-
-            if (this.isCancelled()) {
-                SignShop.log("Successfully cancelled async " + fileName + " save task with ID: " + this.getTaskId(), Level.INFO);
-            }
+            SignShop.log("Successfully cancelled async " + fileName + " save task with ID: " + this.getTaskId(), Level.INFO);
+        } catch (IllegalStateException ex) {
+            // Task was never scheduled, we are only used for direct saves
         } catch (Exception ex) {
             SignShop.log("Failed to cancel " + fileName + " save task because: " + ex.getMessage(), Level.WARNING);
         }
+
+        FileConfiguration config;
+        synchronized (pendingLock) {
+            config = pending;
+            pending = null;
+        }
+        if (config != null)
+            saveNow(config);
+
+        if (SignShopConfig.debugging())
+            SignShop.log(fileName + ": " + getSavesWritten() + " saves written (" + getBytesWritten() + " bytes, "
+                    + getTotalSaveDuration() + " ms), " + getSavesSkipped() + " saves skipped", Level.INFO);
     }
 
 }
-
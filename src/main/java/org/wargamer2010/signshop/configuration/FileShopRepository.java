@@ -0,0 +1,93 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.wargamer2010.signshop.SellerSnapshot;
+import org.wargamer2010.signshop.SignShop;
+
+import java.io.File;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Stores shops in a single snapshot file, YAML or binary, with single shop changes going to a {@link ShopJournal}
+ */
+public class FileShopRepository implements ShopRepository {
+    private final File snapshotFile;
+    private final ShopSnapshotFormat format;
+    private final ShopJournal journal;
+
+    public FileShopRepository(File snapshotFile, ShopSnapshotFormat format) {
+        this.snapshotFile = snapshotFile;
+        this.format = format;
+        this.journal = new ShopJournal(snapshotFile, format);
+    }
+
+    @Override
+    public String getName() {
+        return snapshotFile.getName();
+    }
+
+    @Override
+    public boolean hasShops() {
+        return (snapshotFile.exists() && snapshotFile.length() > 0);
+    }
+
+    @Override
+    public ShopSnapshot load() {
+        ShopSnapshot snapshot = journal.readSnapshot();
+        if(snapshot == null)
+            return null;
+        // Changes made after the last full save only exist in the journal
+        int replayed = journal.replay(snapshot.getShops(), snapshot.getSequence());
+        if(replayed > 0)
+            SignShop.log("Replayed " + replayed + " shop changes from the journal.", Level.INFO);
+        return new ShopSnapshot(snapshot.getShops(), journal.getSequence(), snapshot.getDataVersion());
+    }
+
+    @Override
+    public boolean importShops(ShopSnapshot snapshot) {
+        return new FileSaveWorker(snapshotFile).saveNow(format.encode(snapshot.getShops(), snapshot.getSequence()));
+    }
+
+    @Override
+    public void retire() {
+        // The journal was folded into the converted shops, it must not be replayed onto anything else
+        retireFile(journal.getJournalFile());
+        retireFile(snapshotFile);
+    }
+
+    private static void retireFile(File file) {
+        if(!file.exists())
+            return;
+        File converted = new File(file.getPath() + ".converted");
+        if(converted.exists())
+            converted.delete();
+        if(!file.renameTo(converted))
+            SignShop.log("Could not rename " + file.getName() + " after converting it.", Level.WARNING);
+    }
+
+    @Override
+    public void start() {
+        journal.runTaskTimerAsynchronously(SignShop.getInstance(), 1, 1);
+    }
+
+    @Override
+    public void upsert(String key, SellerSnapshot shop) {
+        journal.queueUpsert(key, shop);
+    }
+
+    @Override
+    public void delete(String key) {
+        journal.queueDelete(key);
+    }
+
+    @Override
+    public void saveAll(Map<String, SellerSnapshot> shops) {
+        // Snapshots are cheap to take, serializing and saving them to disc happens on the journal thread
+        journal.queueSnapshot(shops);
+    }
+
+    @Override
+    public void stop() {
+        journal.stop();
+    }
+}
@@ -0,0 +1,151 @@
+package org.wargamer2010.signshop.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A message or command split into literal text and placeholders once, so filling in the blanks is a single pass.
+ * A placeholder is a ! followed by letters, digits or underscores, it is replaced by the longest message part its
+ * text starts with. Backslashes only separate placeholders from the text after them and are left out.
+ */
+public class MessageTemplate {
+    // Templates of the configuration and the language files, plus those used since, up to a limit
+    private static final Map<String, MessageTemplate> compiled = new ConcurrentHashMap<>();
+    private static final int maxCompiled = 4096;
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final String[] segments;
+    private final boolean[] placeholders;
+
+    private MessageTemplate(String[] segments, boolean[] placeholders) {
+        this.segments = segments;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * @param template Text of the template
+     * @return The compiled template, compiled once for templates that are used more often
+     */
+    public static MessageTemplate of(String template) {
+        MessageTemplate found = compiled.get(template);
+        if(found != null)
+            return found;
+        found = compile(template);
+        if(compiled.size() < maxCompiled)
+            compiled.put(template, found);
+        return found;
+    }
+
+    /**
+     * Compiles the given templates ahead of their first use
+     *
+     * @param templates Texts of the templates, null entries are skipped
+     */
+    public static void precompile(Iterable<String> templates) {
+        for(String template : templates) {
+            if(template != null)
+                of(template);
+        }
+    }
+
+    /**
+     * Forgets all compiled templates, to be called when the configuration is reloaded
+     */
+    public static void clear() {
+        compiled.clear();
+    }
+
+    private static MessageTemplate compile(String template) {
+        List<String> segments = new ArrayList<>();
+        List<Boolean> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(template.length());
+        int length = template.length();
+        int i = 0;
+        while(i < length) {
+            char c = template.charAt(i);
+            if(c == '\\') {
+                i++;
+            } else if(c == '!' && i + 1 < length && isNameChar(template.charAt(i + 1))) {
+                int end = i + 1;
+                while(end < length && isNameChar(template.charAt(end)))
+                    end++;
+                if(literal.length() > 0) {
+                    segments.add(literal.toString());
+                    placeholders.add(false);
+                    literal.setLength(0);
+                }
+                segments.add(template.substring(i, end));
+                placeholders.add(true);
+                i = end;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        if(literal.length() > 0) {
+            segments.add(literal.toString());
+            placeholders.add(false);
+        }
+
+        boolean[] isPlaceholder = new boolean[placeholders.size()];
+        for(int j = 0; j < isPlaceholder.length; j++)
+            isPlaceholder[j] = placeholders.get(j);
+        return new MessageTemplate(segments.toArray(new String[0]), isPlaceholder);
+    }
+
+    private static boolean isNameChar(char c) {
+        return (Character.isLetterOrDigit(c) || c == '_');
+    }
+
+    /**
+     * @param messageParts Values of the placeholders, only the parts that occur are looked up
+     * @return The text with all known placeholders filled in
+     */
+    public String render(Map<String, String> messageParts) {
+        return render(messageParts, false);
+    }
+
+    /**
+     * @param messageParts Values of the placeholders, only the parts that occur are looked up
+     * @param nested True to also fill in placeholders that occur in the values, once
+     * @return The text with all known placeholders filled in
+     */
+    public String render(Map<String, String> messageParts, boolean nested) {
+        StringBuilder builder = builders.get();
+        // Parts computed on first use may render messages themselves
+        if(builder.length() > 0)
+            builder = new StringBuilder(256);
+        for(int i = 0; i < segments.length; i++) {
+            if(placeholders[i])
+                appendPlaceholder(builder, segments[i], messageParts, nested);
+            else
+                builder.append(segments[i]);
+        }
+        String rendered = builder.toString();
+        builder.setLength(0);
+        return rendered;
+    }
+
+    private static void appendPlaceholder(StringBuilder builder, String placeholder, Map<String, String> messageParts, boolean nested) {
+        // Longest part first, a placeholder may be followed by text without a separator
+        for(int end = placeholder.length(); end > 1; end--) {
+            String value = messageParts.get(end == placeholder.length() ? placeholder : placeholder.substring(0, end));
+            if(value != null) {
+                if(nested && value.indexOf('!') >= 0) {
+                    builder.append(compile(value).render(messageParts, false));
+                } else {
+                    for(int i = 0; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if(c != '\\')
+                            builder.append(c);
+                    }
+                }
+                builder.append(placeholder, end, placeholder.length());
+                return;
+            }
+        }
+        builder.append(placeholder);
+    }
+}
@@ -0,0 +1,144 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.bukkit.block.Block;
+import org.wargamer2010.signshop.Seller;
+
+import java.util.*;
+
+/**
+ * Reverse index from block coordinates to the shops that link those blocks.
+ * Coordinates are packed into a single long per world so lookups by block do not have to walk every Seller.
+ */
+public class ShopBlockIndex {
+    private final Map<String, Map<Long, List<Seller>>> containables = new HashMap<>();
+    private final Map<String, Map<Long, List<Seller>>> activatables = new HashMap<>();
+    private final Map<Seller, List<IndexedBlock>> indexedBySeller = new IdentityHashMap<>();
+
+    /**
+     * Packs block coordinates into a single long, 26 bits for x and z and 12 bits for y
+     *
+     * @param x Block X
+     * @param y Block Y
+     * @param z Block Z
+     * @return Packed coordinate
+     */
+    public static long pack(int x, int y, int z) {
+        return (((long) x & 0x3FFFFFFL) << 38) | (((long) z & 0x3FFFFFFL) << 12) | ((long) y & 0xFFFL);
+    }
+
+    public static long pack(Block block) {
+        return pack(block.getX(), block.getY(), block.getZ());
+    }
+
+    public void add(Seller seller) {
+        if(seller == null)
+            return;
+        remove(seller);
+        List<IndexedBlock> indexed = new ArrayList<>();
+        if(seller.getContainables() != null) {
+            for(Block block : seller.getContainables())
+                indexed.add(put(containables, block, seller, true));
+        }
+        if(seller.getActivatables() != null) {
+            for(Block block : seller.getActivatables())
+                indexed.add(put(activatables, block, seller, false));
+        }
+        indexedBySeller.put(seller, indexed);
+    }
+
+    public void remove(Seller seller) {
+        List<IndexedBlock> indexed = indexedBySeller.remove(seller);
+        if(indexed == null)
+            return;
+        for(IndexedBlock entry : indexed) {
+            Map<String, Map<Long, List<Seller>>> index = (entry.containable ? containables : activatables);
+            Map<Long, List<Seller>> world = index.get(entry.world);
+            if(world == null)
+                continue;
+            List<Seller> atBlock = world.get(entry.key);
+            if(atBlock == null)
+                continue;
+            atBlock.remove(seller);
+            if(atBlock.isEmpty())
+                world.remove(entry.key);
+            if(world.isEmpty())
+                index.remove(entry.world);
+        }
+    }
+
+    public void clear() {
+        containables.clear();
+        activatables.clear();
+        indexedBySeller.clear();
+    }
+
+    /**
+     * Returns the shops that link the given block either as containable or as activatable
+     *
+     * @param block Block to look up
+     * @return Distinct shops in order of registration
+     */
+    public List<Seller> getSellers(Block block) {
+        List<Seller> fromContainables = get(containables, block);
+        List<Seller> fromActivatables = get(activatables, block);
+        if(fromContainables.isEmpty() && fromActivatables.isEmpty())
+            return new LinkedList<>();
+        Set<Seller> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Seller> sellers = new LinkedList<>();
+        for(Seller seller : fromActivatables) {
+            if(distinct.add(seller))
+                sellers.add(seller);
+        }
+        for(Seller seller : fromContainables) {
+            if(distinct.add(seller))
+                sellers.add(seller);
+        }
+        return sellers;
+    }
+
+    /**
+     * Returns the shops that link the given block as a containable
+     *
+     * @param block Block to look up
+     * @return Distinct shops in order of registration
+     */
+    public List<Seller> getSellersByContainable(Block block) {
+        List<Seller> sellers = new LinkedList<>();
+        for(Seller seller : get(containables, block)) {
+            if(!sellers.contains(seller))
+                sellers.add(seller);
+        }
+        return sellers;
+    }
+
+    private List<Seller> get(Map<String, Map<Long, List<Seller>>> index, Block block) {
+        if(block == null || block.getWorld() == null)
+            return Collections.emptyList();
+        Map<Long, List<Seller>> world = index.get(block.getWorld().getName());
+        if(world == null)
+            return Collections.emptyList();
+        List<Seller> atBlock = world.get(pack(block));
+        return (atBlock == null ? Collections.emptyList() : atBlock);
+    }
+
+    private IndexedBlock put(Map<String, Map<Long, List<Seller>>> index, Block block, Seller seller, boolean containable) {
+        String worldName = block.getWorld().getName();
+        long key = pack(block);
+        index.computeIfAbsent(worldName, k -> new HashMap<>())
+                .computeIfAbsent(key, k -> new ArrayList<>(1))
+                .add(seller);
+        return new IndexedBlock(worldName, key, containable);
+    }
+
+    private static class IndexedBlock {
+        private final String world;
+        private final long key;
+        private final boolean containable;
+
+        private IndexedBlock(String world, long key, boolean containable) {
+            this.world = world;
+            this.key = key;
+            this.containable = containable;
+        }
+    }
+}
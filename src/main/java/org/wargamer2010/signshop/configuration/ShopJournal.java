@@ -0,0 +1,302 @@
+package org.wargamer2010.signshop.configuration;
+
+import com.google.gson.*;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.wargamer2010.signshop.SellerSnapshot;
+import org.wargamer2010.signshop.SignShop;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Write-ahead journal for the shop snapshot. Single shop changes are appended as one line each instead of rewriting
+ * the whole snapshot, and the journal is folded back into the snapshot in the background once it grows too large.
+ * This worker is the only writer of both files so snapshots and journal records are always applied in order.
+ */
+public class ShopJournal extends BukkitRunnable {
+    public static final String sequenceKey = "JournalSequence";
+    private static final int compactThreshold = 1000;
+    private static final String upsert = "upsert";
+    private static final String delete = "delete";
+
+    private final File snapshotFile;
+    private final ShopSnapshotFormat format;
+    private final File journalFile;
+    private final FileSaveWorker snapshotWriter;
+    private final LinkedBlockingQueue<JournalEntry> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Gson gson = new Gson();
+    private int journalRecords = 0;
+
+    public ShopJournal(File snapshotFile, ShopSnapshotFormat format) {
+        this.snapshotFile = snapshotFile;
+        this.format = format;
+        this.snapshotWriter = new FileSaveWorker(snapshotFile);
+        String name = snapshotFile.getName();
+        if(name.endsWith("." + format.getExtension()))
+            name = name.substring(0, name.length() - format.getExtension().length() - 1);
+        this.journalFile = new File(snapshotFile.getParentFile(), name + ".journal");
+    }
+
+    /**
+     * Reads the snapshot this journal belongs to, or returns an empty one if there is none yet
+     *
+     * @return The snapshot, or null if it could not be read
+     */
+    public ShopSnapshot readSnapshot() {
+        if(!snapshotFile.exists() || snapshotFile.length() == 0)
+            return new ShopSnapshot(new LinkedHashMap<>(), 0, SignShop.DATA_VERSION);
+        try {
+            return format.read(snapshotFile);
+        } catch(IOException ex) {
+            SignShop.log("Could not read " + snapshotFile.getName() + " because: " + ex.getMessage(), Level.SEVERE);
+            return null;
+        }
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * @return The sequence number of the last queued record
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Queues a single shop to be stored, it is serialized on the journal thread
+     *
+     * @param key Shop key
+     * @param data Snapshot of the shop
+     */
+    public void queueUpsert(String key, SellerSnapshot data) {
+        pending.add(new JournalEntry(sequence.incrementAndGet(), upsert, key, data, null));
+    }
+
+    public void queueDelete(String key) {
+        pending.add(new JournalEntry(sequence.incrementAndGet(), delete, key, null, null));
+    }
+
+    /**
+     * Queues a full snapshot, which replaces the snapshot file and empties the journal once written
+     *
+     * @param shops Snapshots of every shop at the current sequence, by shop key
+     */
+    public void queueSnapshot(Map<String, SellerSnapshot> shops) {
+        if(shops == null)
+            return;
+        pending.add(new JournalEntry(sequence.get(), null, null, null, shops));
+    }
+
+    /**
+     * Applies all journal records newer than the snapshot to the given shop settings.
+     * To be called a single time during loading, before the worker is started.
+     *
+     * @param sellers Shop settings as loaded from the snapshot, keyed by shop
+     * @param snapshotSequence Sequence stored in the snapshot
+     * @return Amount of records that were applied
+     */
+    public int replay(Map<String, Map<String, Object>> sellers, long snapshotSequence) {
+        sequence.set(Math.max(sequence.get(), snapshotSequence));
+        int applied = 0;
+        journalRecords = 0;
+        for(JsonObject record : readJournal()) {
+            journalRecords++;
+            long seq = record.get("seq").getAsLong();
+            sequence.set(Math.max(sequence.get(), seq));
+            if(seq <= snapshotSequence)
+                continue;
+            apply(sellers, record);
+            applied++;
+        }
+        return applied;
+    }
+
+    @Override
+    public synchronized void run() {
+        process();
+        if(journalRecords >= compactThreshold)
+            compact();
+    }
+
+    /**
+     * Cancels the async task and writes everything that is still pending on the calling thread
+     */
+    public void stop() {
+        try {
+            this.cancel();
+        } catch(IllegalStateException ignored) {
+            // Task was never scheduled
+        }
+        synchronized(this) {
+            process();
+        }
+        snapshotWriter.stop();
+    }
+
+    private void process() {
+        List<JournalEntry> entries = new ArrayList<>(pending.size());
+        pending.drainTo(entries);
+        if(entries.isEmpty())
+            return;
+
+        // Only the last snapshot matters, it already contains everything queued before it
+        int lastSnapshot = -1;
+        for(int i = 0; i < entries.size(); i++) {
+            if(entries.get(i).snapshot != null) {
+                if(lastSnapshot >= 0)
+                    snapshotWriter.markSkipped();
+                lastSnapshot = i;
+            }
+        }
+        if(lastSnapshot >= 0) {
+            JournalEntry snapshot = entries.get(lastSnapshot);
+            Map<String, Map<String, Object>> shops = new HashMap<>(snapshot.snapshot.size() * 2);
+            for(Map.Entry<String, SellerSnapshot> shop : snapshot.snapshot.entrySet())
+                shops.put(shop.getKey(), shop.getValue().getSerializedData());
+            if(snapshotWriter.saveNow(format.encode(shops, snapshot.sequence))) {
+                truncateJournal();
+                entries = entries.subList(lastSnapshot + 1, entries.size());
+            } else {
+                // The old snapshot is still on disk, so every change queued before the new one goes to the journal
+                List<JournalEntry> records = new ArrayList<>(entries.size());
+                for(JournalEntry entry : entries) {
+                    if(entry.snapshot == null)
+                        records.add(entry);
+                }
+                entries = records;
+            }
+        }
+        append(entries);
+    }
+
+    private void append(List<JournalEntry> entries) {
+        if(entries.isEmpty())
+            return;
+        StringBuilder builder = new StringBuilder(entries.size() * 256);
+        for(JournalEntry entry : entries) {
+            JsonObject record = new JsonObject();
+            record.addProperty("seq", entry.sequence);
+            record.addProperty("op", entry.operation);
+            record.addProperty("key", entry.key);
+            if(entry.data != null)
+                record.add("data", gson.toJsonTree(entry.data.getSerializedData()));
+            builder.append(gson.toJson(record)).append('\n');
+        }
+
+        try(FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+            journalRecords += entries.size();
+        } catch(IOException ex) {
+            SignShop.log("Failed to append to " + journalFile.getName() + " because: " + ex.getMessage(), Level.WARNING);
+        }
+    }
+
+    /**
+     * Folds the journal into the snapshot on disk and empties the journal afterwards
+     */
+    private void compact() {
+        ShopSnapshot snapshot = readSnapshot();
+        if(snapshot == null) {
+            SignShop.log("Could not compact " + journalFile.getName() + " because " + snapshotFile.getName() + " has an invalid format.", Level.WARNING);
+            journalRecords = 0;
+            return;
+        }
+
+        Map<String, Map<String, Object>> sellers = snapshot.getShops();
+        long snapshotSequence = snapshot.getSequence();
+        long folded = snapshotSequence;
+        for(JsonObject record : readJournal()) {
+            long seq = record.get("seq").getAsLong();
+            if(seq <= snapshotSequence)
+                continue;
+            apply(sellers, record);
+            folded = Math.max(folded, seq);
+        }
+
+        if(snapshotWriter.saveNow(format.encode(sellers, folded)))
+            truncateJournal();
+    }
+
+    private void truncateJournal() {
+        try(FileOutputStream ignored = new FileOutputStream(journalFile, false)) {
+            journalRecords = 0;
+        } catch(IOException ex) {
+            SignShop.log("Failed to truncate " + journalFile.getName() + " because: " + ex.getMessage(), Level.WARNING);
+        }
+    }
+
+    private List<JsonObject> readJournal() {
+        List<JsonObject> records = new ArrayList<>();
+        if(!journalFile.exists())
+            return records;
+        JsonParser parser = new JsonParser();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                if(line.trim().isEmpty())
+                    continue;
+                try {
+                    JsonObject record = parser.parse(line).getAsJsonObject();
+                    if(record.has("seq") && record.has("op") && record.has("key"))
+                        records.add(record);
+                } catch(JsonParseException | IllegalStateException ex) {
+                    // Most likely a record that was only partially written before a crash
+                    SignShop.log("Skipping unreadable record on line " + lineNumber + " of " + journalFile.getName(), Level.WARNING);
+                }
+            }
+        } catch(IOException ex) {
+            SignShop.log("Could not read " + journalFile.getName() + " because: " + ex.getMessage(), Level.WARNING);
+        }
+        return records;
+    }
+
+    private static void apply(Map<String, Map<String, Object>> sellers, JsonObject record) {
+        String key = record.get("key").getAsString();
+        String operation = record.get("op").getAsString();
+        if(delete.equals(operation)) {
+            sellers.remove(key);
+        } else if(upsert.equals(operation) && record.has("data")) {
+            Map<String, Object> settings = new LinkedHashMap<>();
+            for(Map.Entry<String, JsonElement> setting : record.getAsJsonObject("data").entrySet()) {
+                JsonElement value = setting.getValue();
+                if(value.isJsonArray()) {
+                    List<String> values = new ArrayList<>();
+                    for(JsonElement element : value.getAsJsonArray()) {
+                        if(!element.isJsonNull())
+                            values.add(element.getAsString());
+                    }
+                    settings.put(setting.getKey(), values);
+                } else if(!value.isJsonNull()) {
+                    settings.put(setting.getKey(), value.getAsString());
+                }
+            }
+            sellers.put(key, settings);
+        }
+    }
+
+    private static class JournalEntry {
+        private final long sequence;
+        private final String operation;
+        private final String key;
+        private final SellerSnapshot data;
+        private final Map<String, SellerSnapshot> snapshot;
+
+        private JournalEntry(long sequence, String operation, String key, SellerSnapshot data, Map<String, SellerSnapshot> snapshot) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.key = key;
+            this.data = data;
+            this.snapshot = snapshot;
+        }
+    }
+}
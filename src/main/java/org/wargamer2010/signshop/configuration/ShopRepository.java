@@ -0,0 +1,62 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.wargamer2010.signshop.SellerSnapshot;
+
+import java.util.Map;
+
+/**
+ * Persistent store for shops. Storage keeps every shop in memory and only hands changes to its repository, which
+ * writes them in the background. Shops are identified by the key Storage derives from their sign location.
+ */
+public interface ShopRepository {
+    /**
+     * @return Name of the store for log messages, such as the file name
+     */
+    String getName();
+
+    /**
+     * @return True if this store holds any shops, without loading them
+     */
+    boolean hasShops();
+
+    /**
+     * Reads every stored shop, to be called a single time on the main thread before {@link #start()}
+     *
+     * @return The stored shops, or null if the store could not be read
+     */
+    ShopSnapshot load();
+
+    /**
+     * Replaces the contents of this store with the given shops right away, used when converting between stores
+     *
+     * @param snapshot Shops as loaded from another store
+     * @return True if the shops were stored
+     */
+    boolean importShops(ShopSnapshot snapshot);
+
+    /**
+     * Moves the stored data aside after it was converted to another store, so it is not picked up again
+     */
+    void retire();
+
+    /**
+     * Starts writing queued changes in the background
+     */
+    void start();
+
+    void upsert(String key, SellerSnapshot shop);
+
+    void delete(String key);
+
+    /**
+     * Replaces every stored shop
+     *
+     * @param shops Snapshots of every shop, by shop key
+     */
+    void saveAll(Map<String, SellerSnapshot> shops);
+
+    /**
+     * Stops the background work, writing everything that is still pending on the calling thread
+     */
+    void stop();
+}
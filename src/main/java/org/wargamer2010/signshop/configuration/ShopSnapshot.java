@@ -0,0 +1,65 @@
+package org.wargamer2010.signshop.configuration;
+
+import java.util.*;
+
+/**
+ * Stored settings of all shops as read from a snapshot file. Setting values are either a String or a List of
+ * Strings, exactly as they were written.
+ */
+public class ShopSnapshot {
+    private final Map<String, Map<String, Object>> shops;
+    private final long sequence;
+    private final int dataVersion;
+
+    public ShopSnapshot(Map<String, Map<String, Object>> shops, long sequence, int dataVersion) {
+        this.shops = shops;
+        this.sequence = sequence;
+        this.dataVersion = dataVersion;
+    }
+
+    /**
+     * @return Settings by shop key, may be modified
+     */
+    public Map<String, Map<String, Object>> getShops() {
+        return shops;
+    }
+
+    /**
+     * @return Sequence of the last journal record contained in this snapshot
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Converts stored settings to the lowercase keyed lists Storage works with
+     *
+     * @param shop Settings of a single shop
+     * @return Settings where every value is a list
+     */
+    public static HashMap<String, List<String>> toSettings(Map<String, Object> shop) {
+        HashMap<String, List<String>> settings = new HashMap<>();
+        for(Map.Entry<String, Object> setting : shop.entrySet()) {
+            List<String> values = new LinkedList<>();
+            if(setting.getValue() instanceof Collection) {
+                for(Object value : (Collection<?>) setting.getValue()) {
+                    if(value != null)
+                        values.add(value.toString());
+                }
+            } else if(setting.getValue() instanceof Object[]) {
+                for(Object value : (Object[]) setting.getValue()) {
+                    if(value != null)
+                        values.add(value.toString());
+                }
+            } else if(setting.getValue() != null) {
+                values.add(setting.getValue().toString());
+            }
+            settings.put(setting.getKey().toLowerCase(), values);
+        }
+        return settings;
+    }
+}
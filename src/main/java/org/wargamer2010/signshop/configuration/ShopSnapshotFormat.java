@@ -0,0 +1,33 @@
+package org.wargamer2010.signshop.configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * File format used for full snapshots of all shops
+ */
+public interface ShopSnapshotFormat {
+    /**
+     * @return Extension of snapshot files in this format, without the dot
+     */
+    String getExtension();
+
+    /**
+     * Reads a snapshot
+     *
+     * @param file Snapshot file
+     * @return The snapshot, or null if the file is not in a format we understand
+     * @throws IOException If the file could not be read
+     */
+    ShopSnapshot read(File file) throws IOException;
+
+    /**
+     * Encodes a snapshot
+     *
+     * @param shops Settings by shop key, values are a String, a String array or a List of Strings
+     * @param sequence Sequence of the last journal record contained in the snapshot
+     * @return Encoded file contents
+     */
+    byte[] encode(Map<String, ? extends Map<String, Object>> shops, long sequence);
+}
@@ -36,6 +36,8 @@ public class SignShopConfig {
     private static Map<String, Integer> ShopLimits;
     private static List<LinkableMaterial> LinkableMaterials;
     private static Map<String, List<String>> Operations = new HashMap<>();
+    private static volatile Map<String, SignShopOperationListItem[]> CompiledOperations = Collections.emptyMap(); // Operation and alias <-> Blocks
+    private static final SignShopOperationListItem[] NoBlocks = new SignShopOperationListItem[0];
     private static SignShop instance = null;
     private static final Map<String, SignShopOperation> ExternalOperations = new HashMap<>();
     //Configurables
@@ -47,6 +49,8 @@ public class SignShopConfig {
     private static int MessageCooldown = 0;
     private static int ChunkLoadRadius = 2;
     private static int MaxChestsPerShop = 100;
+    private static int MaxSaveDelay = 5000;
+    private static String StorageFormat = "yaml";
     private static boolean TransactionLog = false;
     private static boolean Debugging = false;
     private static boolean MetricsEnabled = true;
@@ -143,9 +147,34 @@ public class SignShopConfig {
         copyFileFromJar("SSQuickReference.pdf", true);
         setupOperations();
         fixIncompleOperations();
+        compileOperations();
         setupHooks();
         setupSpecialsOps();
         setupLinkables();
+        compileTemplates();
+    }
+
+    /**
+     * Compiles all messages, errors and commands, templates of an earlier load are dropped
+     */
+    private static void compileTemplates() {
+        MessageTemplate.clear();
+        for (Map<String, HashMap<String, String>> types : Messages.values()) {
+            if (types != null) {
+                for (HashMap<String, String> messages : types.values()) {
+                    if (messages != null)
+                        MessageTemplate.precompile(messages.values());
+                }
+            }
+        }
+        for (Map<String, String> errors : Errors.values()) {
+            if (errors != null)
+                MessageTemplate.precompile(errors.values());
+        }
+        for (List<String> commands : Commands.values())
+            MessageTemplate.precompile(commands);
+        for (List<String> commands : DelayedCommands.values())
+            MessageTemplate.precompile(commands);
     }
 
     public static String getPreferredLanguage() {
@@ -222,6 +251,8 @@ public class SignShopConfig {
         MaxShopsPerPerson = ymlThing.getInt("MaxShopsPerPerson", MaxShopsPerPerson);
         ChunkLoadRadius = ymlThing.getInt("ChunkLoadRadius", ChunkLoadRadius);
         ShopCooldown = ymlThing.getInt("ShopCooldownMilliseconds", ShopCooldown);
+        MaxSaveDelay = ymlThing.getInt("MaxSaveDelayMilliseconds", MaxSaveDelay);
+        StorageFormat = ymlThing.getString("StorageFormat", StorageFormat);
         MessageCooldown = ymlThing.getInt("MessageCooldownSeconds", MessageCooldown);
         MaxChestsPerShop = ymlThing.getInt("MaxChestsPerShop", MaxChestsPerShop);
         OPOverride = ymlThing.getBoolean("OPOverride", OPOverride);
@@ -265,6 +296,8 @@ public class SignShopConfig {
         // Sanity check
         if (ChunkLoadRadius > 50 || ChunkLoadRadius < 0)
             ChunkLoadRadius = 3;
+        if (MaxSaveDelay < 0)
+            MaxSaveDelay = 5000;
 
         config = ymlThing;
     }
@@ -389,6 +422,23 @@ public class SignShopConfig {
                 }
             }
         }
+        compileOperations();
+    }
+
+    /**
+     * Resolves the blocks of every operation and alias once, the result replaces the previous one as a whole
+     */
+    private static void compileOperations() {
+        Map<String, SignShopOperationListItem[]> compiled = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : Operations.entrySet()) {
+            List<SignShopOperationListItem> blocks = signshopUtil.getSignShopOps(entry.getValue());
+            compiled.put(entry.getKey(), (blocks == null ? null : blocks.toArray(NoBlocks)));
+        }
+        if (OperationAliases != null) {
+            for (Map.Entry<String, String> alias : OperationAliases.entrySet())
+                compiled.put(alias.getKey(), compiled.get(alias.getValue()));
+        }
+        CompiledOperations = compiled;
     }
 
     private static String opListToString(List<String> operations) {
@@ -523,6 +573,19 @@ public class SignShopConfig {
             return new LinkedList<>();
     }
 
+    /**
+     * Returns the compiled blocks of an operation, the array is shared and should not be modified
+     *
+     * @param op Operation or alias
+     * @return Blocks of the operation, empty for unknown operations or null if one of its blocks does not exist
+     */
+    public static SignShopOperationListItem[] getCompiledBlocks(String op) {
+        Map<String, SignShopOperationListItem[]> compiled = CompiledOperations;
+        if (!compiled.containsKey(op))
+            return NoBlocks;
+        return compiled.get(op);
+    }
+
     public static Collection<String> getOperations() {
         return Collections.unmodifiableCollection(Operations.keySet());
     }
@@ -545,6 +608,7 @@ public class SignShopConfig {
     public static boolean registerOperation(String sName, List<String> blocks) {
         if (sName != null && blocks != null && !blocks.isEmpty()) {
             Operations.put(sName, blocks);
+            compileOperations();
             return true;
         }
         return false;
@@ -610,20 +674,22 @@ public class SignShopConfig {
     }
 
     public static String fillInBlanks(String pMessage, Map<String, String> messageParts) {
-        String message = pMessage;
-
-        if (messageParts == null)
-            return message;
-
-        TreeMap<String, String> temp = new TreeMap<>(new StringLengthComparator());
-        temp.putAll(messageParts);
+        if (pMessage == null || messageParts == null)
+            return pMessage;
+        return MessageTemplate.of(pMessage).render(messageParts);
+    }
 
-        for (Map.Entry<String, String> part : temp.entrySet()) {
-            if (part != null && part.getKey() != null && part.getValue() != null)
-                message = message.replace(part.getKey(), part.getValue());
-        }
-        message = message.replace("\\", "");
-        return message;
+    /**
+     * Fills in the blanks of a command, placeholders that occur in the filled in values are replaced as well
+     *
+     * @param command Command to fill in
+     * @param messageParts Values of the placeholders
+     * @return The command to run
+     */
+    public static String fillInCommand(String command, Map<String, String> messageParts) {
+        if (command == null || messageParts == null)
+            return command;
+        return MessageTemplate.of(command).render(messageParts, true);
     }
 
     private static void setupBlacklist() {
@@ -711,6 +777,14 @@ public class SignShopConfig {
         return ShopCooldown;
     }
 
+    public static String getStorageFormat() {
+        return StorageFormat;
+    }
+
+    public static int getMaxSaveDelay() {
+        return MaxSaveDelay;
+    }
+
     public static int getChunkLoadRadius() {
         return ChunkLoadRadius;
     }
@@ -906,19 +980,4 @@ public class SignShopConfig {
             this.localeName = localeName;
         }
     }
-
-    /**
-     * Orders strings by their length from long to short
-     */
-    private static class StringLengthComparator implements Comparator<String> {
-        @SuppressWarnings("ComparatorMethodParameterNotUsed")
-        @Override
-        public int compare(String s1, String s2) {
-            int s2Length = s2.length();
-            int s1Length = s1.length();
-            if (s2Length == s1Length)
-                return -1;
-            return s2Length - s1Length;
-        }
-    }
 }
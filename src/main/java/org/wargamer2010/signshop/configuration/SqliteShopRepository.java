@@ -0,0 +1,471 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.bukkit.scheduler.BukkitRunnable;
+import org.wargamer2010.signshop.SellerSnapshot;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.blocks.SSDatabase;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+/**
+ * Stores shops in an SQLite database, one row per shop with its links, items and misc settings in tables of their own.
+ * Changes are queued and written by a background task, everything queued within a tick is committed in a single
+ * transaction. Items are stored once and referenced by every shop that sells them. A full save only rewrites the
+ * shops that differ from what is stored, only importing shops from another store replaces every row.
+ */
+public class SqliteShopRepository extends BukkitRunnable implements ShopRepository {
+    private static final String containable = "containable";
+    private static final String activatable = "activatable";
+
+    private final String filename;
+    private final LinkedBlockingQueue<Change> pending = new LinkedBlockingQueue<>();
+    // Changes of a failed transaction, retried before anything queued later, only used from within synchronized methods
+    private final List<Change> failed = new ArrayList<>();
+    // Item ids by stored item, only used from within synchronized methods
+    private final Map<String, Integer> itemIds = new HashMap<>();
+    // Stored form of every shop by shop key, only used from within synchronized methods
+    private final Map<String, HashMap<String, List<String>>> stored = new HashMap<>();
+    private SSDatabase db = null;
+
+    public SqliteShopRepository(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public String getName() {
+        return filename;
+    }
+
+    private File getFile() {
+        File legacy = new File(SignShop.getInstance().getDataFolder(), filename);
+        if(legacy.exists())
+            return legacy;
+        return new File(SignShop.getInstance().getDataFolder(), "db" + File.separator + filename);
+    }
+
+    @Override
+    public synchronized boolean hasShops() {
+        // Do not create the database just to find out it is empty
+        if(db == null && !getFile().exists())
+            return false;
+        Boolean hasShops = open().query("SELECT COUNT(*) FROM Shop", null, result -> (result.next() && result.getInt(1) > 0));
+        return (hasShops != null && hasShops);
+    }
+
+    private SSDatabase open() {
+        if(db != null)
+            return db;
+        db = new SSDatabase(filename);
+        if(!db.tableExists("Shop"))
+            db.runStatement("CREATE TABLE Shop ( ShopKey TEXT NOT NULL, ShopWorld TEXT NOT NULL, Owner TEXT NOT NULL, SignWorld TEXT NOT NULL, SignX INTEGER NOT NULL, SignY INTEGER NOT NULL, SignZ INTEGER NOT NULL, PRIMARY KEY(ShopKey) )", null, false);
+        if(!db.tableExists("ShopLink")) {
+            db.runStatement("CREATE TABLE ShopLink ( ShopKey TEXT NOT NULL, LinkType TEXT NOT NULL, Position INTEGER NOT NULL, World TEXT NOT NULL, X INTEGER NOT NULL, Y INTEGER NOT NULL, Z INTEGER NOT NULL )", null, false);
+            db.runStatement("CREATE INDEX ShopLinkShop ON ShopLink ( ShopKey )", null, false);
+        }
+        if(!db.tableExists("Item"))
+            db.runStatement("CREATE TABLE Item ( ItemID INTEGER, ItemData TEXT NOT NULL UNIQUE, PRIMARY KEY(ItemID) )", null, false);
+        if(!db.tableExists("ShopItem")) {
+            db.runStatement("CREATE TABLE ShopItem ( ShopKey TEXT NOT NULL, Position INTEGER NOT NULL, ItemID INTEGER NOT NULL )", null, false);
+            db.runStatement("CREATE INDEX ShopItemShop ON ShopItem ( ShopKey )", null, false);
+        }
+        if(!db.tableExists("ShopMisc")) {
+            db.runStatement("CREATE TABLE ShopMisc ( ShopKey TEXT NOT NULL, Miscname TEXT NOT NULL, Miscvalue TEXT NOT NULL )", null, false);
+            db.runStatement("CREATE INDEX ShopMiscShop ON ShopMisc ( ShopKey )", null, false);
+        }
+        loadItemIds();
+        return db;
+    }
+
+    private void loadItemIds() {
+        itemIds.clear();
+        db.query("SELECT ItemID, ItemData FROM Item", null, result -> {
+            while(result.next())
+                itemIds.put(result.getString("ItemData"), result.getInt("ItemID"));
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized ShopSnapshot load() {
+        open();
+        Map<String, Map<String, Object>> shops = new LinkedHashMap<>();
+        try {
+            query("SELECT * FROM Shop", result -> {
+                while(result.next()) {
+                    Map<String, Object> shop = new LinkedHashMap<>();
+                    shop.put("shopworld", result.getString("ShopWorld"));
+                    shop.put("owner", result.getString("Owner"));
+                    shop.put("sign", toLocationString(result.getInt("SignX"), result.getInt("SignY"), result.getInt("SignZ"), result.getString("SignWorld")));
+                    shop.put("containables", new ArrayList<String>());
+                    shop.put("activatables", new ArrayList<String>());
+                    shop.put("items", new ArrayList<String>());
+                    shops.put(result.getString("ShopKey"), shop);
+                }
+            });
+            query("SELECT * FROM ShopLink ORDER BY ShopKey, LinkType, Position", result -> {
+                while(result.next()) {
+                    String type = result.getString("LinkType");
+                    String location = toLocationString(result.getInt("X"), result.getInt("Y"), result.getInt("Z"), result.getString("World"));
+                    addToList(shops, result.getString("ShopKey"), (containable.equals(type) ? "containables" : "activatables"), location);
+                }
+            });
+            query("SELECT ShopItem.ShopKey, Item.ItemData FROM ShopItem INNER JOIN Item ON Item.ItemID = ShopItem.ItemID ORDER BY ShopItem.ShopKey, ShopItem.Position", result -> {
+                while(result.next())
+                    addToList(shops, result.getString("ShopKey"), "items", result.getString("ItemData"));
+            });
+            query("SELECT * FROM ShopMisc", result -> {
+                while(result.next())
+                    addToList(shops, result.getString("ShopKey"), "misc", result.getString("Miscname") + ":" + result.getString("Miscvalue"));
+            });
+        } catch(SQLException ex) {
+            SignShop.log("Could not read shops from " + filename + " because: " + ex.getMessage(), Level.SEVERE);
+            return null;
+        }
+        remember(shops);
+        return new ShopSnapshot(shops, 0, SignShop.DATA_VERSION);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addToList(Map<String, Map<String, Object>> shops, String key, String setting, String value) {
+        Map<String, Object> shop = shops.get(key);
+        if(shop == null)
+            return;
+        ((List<String>) shop.computeIfAbsent(setting, k -> new ArrayList<String>())).add(value);
+    }
+
+    @Override
+    public synchronized boolean importShops(ShopSnapshot snapshot) {
+        boolean stored = open().transaction(() -> {
+            clear();
+            for(Map.Entry<String, Map<String, Object>> shop : snapshot.getShops().entrySet())
+                insertShop(shop.getKey(), shop.getValue());
+            purgeItems();
+        });
+        if(!stored) {
+            // Ids handed out during the failed transaction do not exist
+            loadItemIds();
+            SignShop.log("Could not store shops in " + filename + ".", Level.WARNING);
+        } else {
+            remember(snapshot.getShops());
+        }
+        return stored;
+    }
+
+    @Override
+    public synchronized void retire() {
+        if(db != null) {
+            // The file can only be moved once nothing has it open anymore
+            db.disconnect();
+            db = null;
+        }
+        File file = getFile();
+        if(!file.exists())
+            return;
+        File converted = new File(file.getPath() + ".converted");
+        if(converted.exists())
+            converted.delete();
+        if(!file.renameTo(converted))
+            SignShop.log("Could not rename " + file.getName() + " after converting it.", Level.WARNING);
+    }
+
+    @Override
+    public void start() {
+        synchronized(this) {
+            open();
+        }
+        runTaskTimerAsynchronously(SignShop.getInstance(), 1, 1);
+    }
+
+    @Override
+    public void upsert(String key, SellerSnapshot shop) {
+        pending.add(new Change(key, shop, null));
+    }
+
+    @Override
+    public void delete(String key) {
+        pending.add(new Change(key, null, null));
+    }
+
+    @Override
+    public void saveAll(Map<String, SellerSnapshot> shops) {
+        if(shops != null)
+            pending.add(new Change(null, null, shops));
+    }
+
+    @Override
+    public synchronized void run() {
+        process();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            this.cancel();
+        } catch(IllegalStateException ignored) {
+            // Task was never scheduled
+        }
+        synchronized(this) {
+            process();
+            if(db != null) {
+                db.close();
+                db = null;
+            }
+        }
+    }
+
+    private void process() {
+        List<Change> changes = new ArrayList<>(failed);
+        failed.clear();
+        pending.drainTo(changes);
+        if(changes.isEmpty())
+            return;
+
+        // Everything before the last full save is contained in it
+        int start = 0;
+        for(int i = 0; i < changes.size(); i++) {
+            if(changes.get(i).shops != null)
+                start = i;
+        }
+
+        List<Change> batch = changes.subList(start, changes.size());
+        // Stored form of the shops written by this batch, null for deleted shops, only kept once it is committed
+        Map<String, HashMap<String, List<String>>> written = new HashMap<>();
+        boolean committed = open().transaction(() -> {
+            written.clear();
+            for(Change change : batch) {
+                if(change.shops != null) {
+                    saveChanged(change.shops, written);
+                } else {
+                    deleteShop(change.key);
+                    written.put(change.key, null);
+                    if(change.shop != null) {
+                        Map<String, Object> data = change.shop.getSerializedData();
+                        insertShop(change.key, data);
+                        written.put(change.key, ShopSnapshot.toSettings(data));
+                    }
+                }
+            }
+        });
+        if(committed) {
+            for(Map.Entry<String, HashMap<String, List<String>>> shop : written.entrySet()) {
+                if(shop.getValue() == null)
+                    stored.remove(shop.getKey());
+                else
+                    stored.put(shop.getKey(), shop.getValue());
+            }
+        } else {
+            // Ids handed out during the failed transaction do not exist
+            loadItemIds();
+            SignShop.log("Could not save " + batch.size() + " shop changes to " + filename + ", will try again.", Level.WARNING);
+            failed.addAll(batch);
+        }
+    }
+
+    /**
+     * Writes only the shops that differ from their stored form and deletes the shops that are gone
+     */
+    private void saveChanged(Map<String, SellerSnapshot> shops, Map<String, HashMap<String, List<String>>> written) throws SQLException {
+        Set<String> current = new HashSet<>(stored.keySet());
+        for(Map.Entry<String, HashMap<String, List<String>>> shop : written.entrySet()) {
+            if(shop.getValue() == null)
+                current.remove(shop.getKey());
+            else
+                current.add(shop.getKey());
+        }
+
+        boolean changed = false;
+        for(String key : current) {
+            if(!shops.containsKey(key)) {
+                deleteShop(key);
+                written.put(key, null);
+                changed = true;
+            }
+        }
+        for(Map.Entry<String, SellerSnapshot> shop : shops.entrySet()) {
+            String key = shop.getKey();
+            Map<String, Object> data = shop.getValue().getSerializedData();
+            HashMap<String, List<String>> settings = ShopSnapshot.toSettings(data);
+            HashMap<String, List<String>> old = (written.containsKey(key) ? written.get(key) : stored.get(key));
+            if(settings.equals(old))
+                continue;
+            deleteShop(key);
+            insertShop(key, data);
+            written.put(key, settings);
+            changed = true;
+        }
+        if(changed)
+            purgeItems();
+    }
+
+    private void remember(Map<String, Map<String, Object>> shops) {
+        stored.clear();
+        for(Map.Entry<String, Map<String, Object>> shop : shops.entrySet())
+            stored.put(shop.getKey(), ShopSnapshot.toSettings(shop.getValue()));
+    }
+
+    private void clear() throws SQLException {
+        update("DELETE FROM Shop", null);
+        update("DELETE FROM ShopLink", null);
+        update("DELETE FROM ShopItem", null);
+        update("DELETE FROM ShopMisc", null);
+    }
+
+    private void deleteShop(String key) throws SQLException {
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, key);
+        update("DELETE FROM Shop WHERE ShopKey = ?", pars);
+        update("DELETE FROM ShopLink WHERE ShopKey = ?", pars);
+        update("DELETE FROM ShopItem WHERE ShopKey = ?", pars);
+        update("DELETE FROM ShopMisc WHERE ShopKey = ?", pars);
+    }
+
+    private void insertShop(String key, Map<String, Object> data) throws SQLException {
+        HashMap<String, List<String>> settings = ShopSnapshot.toSettings(data);
+        String[] sign = parseLocation(getFirst(settings, "sign"));
+        if(sign == null) {
+            SignShop.log("Not storing shop " + key + " in " + filename + " because its sign location is invalid.", Level.WARNING);
+            return;
+        }
+
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, key);
+        pars.put(2, getFirst(settings, "shopworld"));
+        pars.put(3, getFirst(settings, "owner"));
+        pars.put(4, sign[3]);
+        pars.put(5, Integer.parseInt(sign[0]));
+        pars.put(6, Integer.parseInt(sign[1]));
+        pars.put(7, Integer.parseInt(sign[2]));
+        update("INSERT INTO Shop (ShopKey, ShopWorld, Owner, SignWorld, SignX, SignY, SignZ) VALUES (?, ?, ?, ?, ?, ?, ?)", pars);
+
+        insertLinks(key, containable, settings.get("containables"));
+        insertLinks(key, activatable, settings.get("activatables"));
+
+        List<String> items = settings.get("items");
+        if(items != null) {
+            int position = 0;
+            for(String item : items) {
+                pars.clear();
+                pars.put(1, key);
+                pars.put(2, position++);
+                pars.put(3, getItemId(item));
+                update("INSERT INTO ShopItem (ShopKey, Position, ItemID) VALUES (?, ?, ?)", pars);
+            }
+        }
+
+        List<String> misc = settings.get("misc");
+        if(misc != null) {
+            for(String miscsetting : misc) {
+                String[] miscbits = miscsetting.split(":", 2);
+                if(miscbits.length != 2)
+                    continue;
+                pars.clear();
+                pars.put(1, key);
+                pars.put(2, miscbits[0].trim());
+                pars.put(3, miscbits[1].trim());
+                update("INSERT INTO ShopMisc (ShopKey, Miscname, Miscvalue) VALUES (?, ?, ?)", pars);
+            }
+        }
+    }
+
+    private void insertLinks(String key, String type, List<String> locations) throws SQLException {
+        if(locations == null)
+            return;
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        int position = 0;
+        for(String location : locations) {
+            String[] coords = parseLocation(location);
+            if(coords == null)
+                continue;
+            pars.put(1, key);
+            pars.put(2, type);
+            pars.put(3, position++);
+            pars.put(4, coords[3]);
+            pars.put(5, Integer.parseInt(coords[0]));
+            pars.put(6, Integer.parseInt(coords[1]));
+            pars.put(7, Integer.parseInt(coords[2]));
+            update("INSERT INTO ShopLink (ShopKey, LinkType, Position, World, X, Y, Z) VALUES (?, ?, ?, ?, ?, ?, ?)", pars);
+        }
+    }
+
+    private int getItemId(String item) throws SQLException {
+        Integer id = itemIds.get(item);
+        if(id != null)
+            return id;
+        Map<Integer, Object> pars = new LinkedHashMap<>();
+        pars.put(1, item);
+        id = update("INSERT INTO Item (ItemData) VALUES (?)", pars);
+        itemIds.put(item, id);
+        return id;
+    }
+
+    /**
+     * Removes items no shop refers to anymore, only done on full saves as it has to look at every shop
+     */
+    private void purgeItems() throws SQLException {
+        update("DELETE FROM Item WHERE ItemID NOT IN (SELECT ItemID FROM ShopItem)", null);
+        loadItemIds();
+    }
+
+    private void query(String query, RowReader reader) throws SQLException {
+        Boolean read = db.query(query, null, result -> {
+            reader.read(result);
+            return true;
+        });
+        if(read == null)
+            throw new SQLException("Query failed: " + query);
+    }
+
+    private int update(String query, Map<Integer, Object> pars) throws SQLException {
+        Object result = db.runStatement(query, pars, false);
+        if(result == null)
+            throw new SQLException("Query failed: " + query);
+        return (Integer) result;
+    }
+
+    private static String getFirst(Map<String, List<String>> settings, String name) {
+        List<String> values = settings.get(name);
+        return (values == null || values.isEmpty() ? "" : values.get(0));
+    }
+
+    /**
+     * @return The x, y, z and world of a location string, or null if it is not valid
+     */
+    private static String[] parseLocation(String location) {
+        String[] coords = location.split("/", 4);
+        if(coords.length < 4)
+            return null;
+        try {
+            for(int i = 0; i < 3; i++)
+                Integer.parseInt(coords[i]);
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+        return coords;
+    }
+
+    // Same format as signshopUtil.convertLocationToString
+    private static String toLocationString(int x, int y, int z, String world) {
+        return x + "/" + y + "/" + z + "/" + world;
+    }
+
+    private interface RowReader {
+        void read(ResultSet result) throws SQLException;
+    }
+
+    private static class Change {
+        private final String key;
+        private final SellerSnapshot shop;
+        private final Map<String, SellerSnapshot> shops;
+
+        private Change(String key, SellerSnapshot shop, Map<String, SellerSnapshot> shops) {
+            this.key = key;
+            this.shop = shop;
+            this.shops = shops;
+        }
+    }
+}
@@ -4,75 +4,100 @@ import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.Sign;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.inventory.ItemStack;
 import org.wargamer2010.signshop.Seller;
+import org.wargamer2010.signshop.SellerSnapshot;
 import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.blocks.ItemDictionary;
+import org.wargamer2010.signshop.blocks.SharedItem;
 import org.wargamer2010.signshop.player.PlayerIdentifier;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 
 public class Storage implements Listener {
-    private final File ymlfile;
-    private final LinkedBlockingQueue<FileConfiguration> saveQueue = new LinkedBlockingQueue<>();
-
-    private static FileSaveWorker fileSaveWorker;
+    private static ShopRepository repository;
 
     private static Storage instance = null;
     private static int taskId = 0;
 
     private static Map<Location,Seller> sellers;
+    private static final ShopBlockIndex blockIndex = new ShopBlockIndex();
     private static final String itemSeperator = "&";
 
     private final Map<String, HashMap<String, List<String>>> invalidShops = new LinkedHashMap<>();
+    // Shops whose sign has not been checked yet because their chunk was not loaded, by world and chunk
+    private final Map<String, Map<Long, List<Location>>> unvalidatedShops = new HashMap<>();
+    private int unvalidatedCount = 0;
 
     private Storage(File ymlFile) {
-        fileSaveWorker = new FileSaveWorker(ymlFile);
-        taskId = fileSaveWorker.runTaskTimerAsynchronously(SignShop.getInstance(),1,1).getTaskId();
-        if(!ymlFile.exists()) {
-            try {
-                ymlFile.createNewFile();
-                Save();
-            } catch(IOException ex) {
-                SignShop.log("Could not create sellers.yml", Level.WARNING);
-            }
-        }
-        ymlfile = ymlFile;
+        repository = createRepository(SignShopConfig.getStorageFormat(), ymlFile);
+        // Pick up shops from another store when the configured format was switched
+        if(!repository.hasShops())
+            convertFrom(ymlFile);
+
         sellers = new HashMap<>();
+        blockIndex.clear();
+
+        boolean firstStartup = !repository.hasShops();
+        // Load into memory, this also removes invalid signs
+        Boolean needToSave = Load(firstStartup);
+        // Everything stored has to be loaded before the repository may write anything
+        repository.start();
+        if(firstStartup || needToSave)
+            Save();
+    }
 
-        // Load into memory, this also removes invalid signs (hence the backup)
-        Boolean needToSave = Load();
+    private static ShopRepository createRepository(String format, File ymlFile) {
+        if(format.equalsIgnoreCase("binary"))
+            return new FileShopRepository(new File(ymlFile.getParentFile(), getBaseName(ymlFile) + ".bin"), new BinaryShopSnapshotFormat());
+        else if(format.equalsIgnoreCase("sqlite"))
+            return new SqliteShopRepository(getBaseName(ymlFile) + ".db");
+        return new FileShopRepository(ymlFile, new YamlShopSnapshotFormat());
+    }
 
-        if(needToSave) {
-            File backupTo = new File(ymlFile.getPath()+".bak");
-            if(backupTo.exists())
-                backupTo.delete();
-            try {
-                copyFile(ymlFile, backupTo);
-            } catch(IOException ex) {
-                SignShop.log(SignShopConfig.getError("backup_fail", null), Level.WARNING);
+    /**
+     * Converts the shops of the first other store that has any to the configured repository, losslessly.
+     * The source is kept with a .converted suffix so it is not picked up again.
+     */
+    private void convertFrom(File ymlFile) {
+        for(String format : new String[] { "yaml", "binary", "sqlite" }) {
+            ShopRepository from = createRepository(format, ymlFile);
+            if(from.getClass() == repository.getClass() && from.getName().equals(repository.getName()))
+                continue;
+            if(!from.hasShops())
+                continue;
+            ShopSnapshot snapshot = from.load();
+            if(snapshot == null) {
+                SignShop.log("Could not convert " + from.getName() + " to " + repository.getName() + " because it has an invalid format.", Level.WARNING);
+            } else if(repository.importShops(snapshot)) {
+                from.retire();
+                SignShop.log("Converted " + snapshot.getShops().size() + " shops from " + from.getName() + " to " + repository.getName() + ".", Level.INFO);
             }
-            Save();
+            from.stop();
+            return;
         }
     }
 
+    private static String getBaseName(File file) {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        return (extension > 0 ? name.substring(0, extension) : name);
+    }
+
     public static Storage init(File ymlFile) {
         if(instance == null) {
             instance = new Storage(ymlFile);
@@ -83,7 +108,8 @@ public class Storage implements Listener {
 
     public static void dispose() {
         instance = null;
-        fileSaveWorker.stop();
+        blockIndex.clear();
+        repository.stop();
     }
 
     public static Storage get() {
@@ -106,7 +132,7 @@ public class Storage implements Listener {
         for(Map.Entry<String,HashMap<String,List<String>>> shopSettings : invalidShops.entrySet())
         {
             if(shopSettings.getKey().contains(worldname.replace(".", ""))) {
-                if(loadSellerFromSettings(shopSettings.getKey(), shopSettings.getValue()))
+                if(loadSellerFromSettings(shopSettings.getKey(), shopSettings.getValue(), null))
                     loaded.add(shopSettings.getKey());
             }
         }
@@ -118,6 +144,46 @@ public class Storage implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if(unvalidatedShops.isEmpty())
+            return;
+
+        String worldname = event.getWorld().getName();
+        Map<Long, List<Location>> chunks = unvalidatedShops.get(worldname);
+        if(chunks == null)
+            return;
+        List<Location> shops = chunks.remove(getChunkKey(event.getChunk().getX(), event.getChunk().getZ()));
+        if(chunks.isEmpty())
+            unvalidatedShops.remove(worldname);
+        if(shops == null)
+            return;
+
+        unvalidatedCount -= shops.size();
+        for(Location location : shops)
+            validateShop(location);
+    }
+
+    private void validateShop(Location location) {
+        Seller seller = sellers.get(location);
+        if(seller == null || itemUtil.clickedSign(seller.getSign()))
+            return;
+        SignShop.log(getInvalidError(SignShopConfig.getError("shop_removed", null),
+                signshopUtil.convertLocationToString(location), seller.getWorld()), Level.INFO);
+        removeSeller(location);
+    }
+
+    private void markUnvalidated(Location location) {
+        unvalidatedShops.computeIfAbsent(location.getWorld().getName(), k -> new HashMap<>())
+                .computeIfAbsent(getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4), k -> new LinkedList<>())
+                .add(location);
+        unvalidatedCount++;
+    }
+
+    private static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
     private List<String> getSetting(HashMap<String,List<String>> settings, String settingName) throws StorageException {
         StorageException ex = new StorageException();
         if(settings.containsKey(settingName))
@@ -126,14 +192,23 @@ public class Storage implements Listener {
             throw ex;
     }
 
-    private boolean loadSellerFromSettings(String key, HashMap<String,List<String>> sellerSettings) {
+    /**
+     * Binds the stored settings of a shop to the world and adds it, has to run on the main thread
+     *
+     * @param key Key of the shop in sellers.yml
+     * @param sellerSettings Stored settings of the shop
+     * @param decodedItems Items decoded ahead of time, or null to decode them here
+     * @return False if the shop is invalid
+     */
+    private boolean loadSellerFromSettings(String key, HashMap<String,List<String>> sellerSettings, SharedItem[] decodedItems) {
         Block seller_sign;
         SignShopPlayer seller_owner;
         List<Block> seller_activatables;
         List<Block> seller_containables;
         String seller_shopworld;
-        ItemStack[] seller_items;
+        SharedItem[] seller_items;
         Map<String, String> miscsettings;
+        boolean validated;
         StorageException storageex = new StorageException();
 
         List<String> tempList;
@@ -166,11 +241,13 @@ public class Storage implements Listener {
                 throw storageex;
             }
 
-            if(!itemUtil.clickedSign(seller_sign))
+            // Checking the sign requires its chunk, so shops in unloaded chunks are checked once the chunk loads
+            validated = world.isChunkLoaded(seller_sign.getX() >> 4, seller_sign.getZ() >> 4);
+            if(validated && !itemUtil.clickedSign(seller_sign))
                 throw storageex;
             seller_activatables = signshopUtil.getBlocksFromLocStringList(getSetting(sellerSettings, "activatables"), world);
             seller_containables = signshopUtil.getBlocksFromLocStringList(getSetting(sellerSettings, "containables"), world);
-            seller_items = itemUtil.convertStringtoItemStacks(getSetting(sellerSettings, "items"));
+            seller_items = (decodedItems != null ? decodedItems : ItemDictionary.intern(getSetting(sellerSettings, "items")));
             miscsettings = new HashMap<>();
             if(sellerSettings.containsKey("misc")) {
                 for(String miscsetting : sellerSettings.get("misc")) {
@@ -212,42 +289,80 @@ public class Storage implements Listener {
             SignShop.log(SignShopConfig.getError("this_shop_exceeded_max_amount_of_chests", parts), Level.WARNING);
         }
 
-        addSeller(seller_owner.GetIdentifier(), seller_shopworld, seller_sign, seller_containables, seller_activatables, seller_items, miscsettings, false);
+        addSeller(new Seller(seller_owner.GetIdentifier(), seller_shopworld, seller_containables, seller_activatables, seller_items, seller_sign.getLocation(), miscsettings), false);
+        if(!validated)
+            markUnvalidated(seller_sign.getLocation());
         return true;
     }
 
-    private Boolean Load() {
+    private Boolean Load(boolean firstStartup) {
         SignShop.log("Loading and validating shops, please wait...",Level.INFO);
-        FileConfiguration yml = YamlConfiguration.loadConfiguration(ymlfile);
-        ConfigurationSection sellersection = yml.getConfigurationSection("sellers");
-        if(sellersection == null) {
-            SignShop.log("There are no shops available. This is likely your first startup with SignShop.",Level.INFO);
-            return false;
-        }
-        Map<String,HashMap<String,List<String>>> tempSellers = configUtil.fetchHashmapInHashmapwithList("sellers", yml);
-        if(tempSellers == null) {
-            SignShop.log("Invalid sellers.yml format detected. Old sellers format is no longer supported."
+        long start = System.nanoTime();
+        ShopSnapshot snapshot = repository.load();
+        if(snapshot == null) {
+            SignShop.log("Invalid " + repository.getName() + " format detected. Old sellers format is no longer supported."
                     + " Visit http://tiny.cc/signshop for more information.",
                     Level.SEVERE);
             return false;
         }
-        if (tempSellers.isEmpty()) {
+        if(firstStartup && snapshot.getShops().isEmpty()) {
+            SignShop.log("There are no shops available. This is likely your first startup with SignShop.",Level.INFO);
+            return false;
+        }
+        if (snapshot.getShops().isEmpty()) {
             SignShop.log("Loaded zero valid shops.",Level.INFO);
             return false;
         }
+        Map<String,HashMap<String,List<String>>> tempSellers = new LinkedHashMap<>();
+        for(Map.Entry<String, Map<String, Object>> shop : snapshot.getShops().entrySet())
+            tempSellers.put(shop.getKey(), ShopSnapshot.toSettings(shop.getValue()));
+
+        long parsed = System.nanoTime();
+        Map<String, SharedItem[]> decodedItems = decodeItems(tempSellers);
+        long decoded = System.nanoTime();
 
         boolean needSave = false;
 
         for(Map.Entry<String,HashMap<String,List<String>>> shopSettings : tempSellers.entrySet())
         {
-            needSave = (loadSellerFromSettings(shopSettings.getKey(), shopSettings.getValue()) && needSave);
+            needSave = (loadSellerFromSettings(shopSettings.getKey(), shopSettings.getValue(), decodedItems.get(shopSettings.getKey())) && needSave);
         }
+        long bound = System.nanoTime();
 
         Bukkit.getPluginManager().registerEvents(this, SignShop.getInstance());
-        SignShop.log("Loaded " + shopCount() + " valid shops.", Level.INFO);
+        if(unvalidatedCount > 0)
+            SignShop.log("Loaded " + shopCount() + " shops, " + unvalidatedCount + " of them will be validated when their chunk loads.", Level.INFO);
+        else
+            SignShop.log("Loaded " + shopCount() + " valid shops.", Level.INFO);
+        SignShop.log("Loading shops took " + TimeUnit.NANOSECONDS.toMillis(bound - start) + " ms (parsing: "
+                + TimeUnit.NANOSECONDS.toMillis(parsed - start) + " ms, decoding items: "
+                + TimeUnit.NANOSECONDS.toMillis(decoded - parsed) + " ms on " + Runtime.getRuntime().availableProcessors()
+                + " threads, " + ItemDictionary.size() + " distinct items, binding to worlds: " + TimeUnit.NANOSECONDS.toMillis(bound - decoded) + " ms)", Level.INFO);
         return needSave;
     }
 
+    /**
+     * Decodes the items of all shops in parallel, none of this needs the main thread.
+     * Items sold by several shops are only decoded once.
+     *
+     * @param shops Stored settings by shop key
+     * @return Decoded items by shop key, shops that could not be decoded are left out
+     */
+    private static Map<String, SharedItem[]> decodeItems(Map<String, HashMap<String, List<String>>> shops) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return pool.submit(() -> shops.entrySet().parallelStream()
+                    .filter(entry -> entry.getValue().containsKey("items"))
+                    .collect(Collectors.toConcurrentMap(Map.Entry::getKey,
+                            entry -> ItemDictionary.intern(entry.getValue().get("items"))))).get();
+        } catch(InterruptedException | ExecutionException ex) {
+            SignShop.log("Could not decode shop items in parallel, decoding them one by one instead: " + ex.getMessage(), Level.WARNING);
+            return new HashMap<>();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private String getInvalidError(String template, String location, String world) {
         String[] locations = new String[4];
         String[] coords = location.split("/");
@@ -276,22 +391,30 @@ public class Storage implements Listener {
     }
 
     public final void Save() {
-        Map<String, Object> tempSellers = new HashMap<>();
-        FileConfiguration config = new YamlConfiguration();
+        Map<String, SellerSnapshot> tempSellers = new HashMap<>();
 
         if (sellers != null) {
-            for(Seller seller : Storage.sellers.values()) {
-                // YML Parser really does not like dots in the name
-                String signLocation = signshopUtil.convertLocationToString(seller.getSignLocation()).replace(".", "");
-
-                tempSellers.put(signLocation, seller.getSerializedData());
-            }
+            for(Seller seller : Storage.sellers.values())
+                tempSellers.put(getShopKey(seller.getSignLocation()), seller.getSnapshot());
         }
 
-        config.set("sellers", tempSellers);
-        config.set("DataVersion",SignShop.DATA_VERSION);
-        // We can not run the logic above async, but we can save to disc on another thread
-        fileSaveWorker.queueSave(config);
+        // Snapshots are cheap to take here, serializing and storing them happens on another thread
+        repository.saveAll(tempSellers);
+    }
+
+    /**
+     * Persists the current state of a single shop without rewriting the whole snapshot
+     *
+     * @param seller Seller that was changed
+     */
+    public void saveSeller(Seller seller) {
+        if(seller != null && sellers.get(seller.getSignLocation()) == seller)
+            repository.upsert(getShopKey(seller.getSignLocation()), seller.getSnapshot());
+    }
+
+    private static String getShopKey(Location location) {
+        // YML Parser really does not like dots in the name
+        return signshopUtil.convertLocationToString(location).replace(".", "");
     }
 
     public void addSeller(PlayerIdentifier playerId, String sWorld, Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems, Map<String, String> misc) {
@@ -299,15 +422,23 @@ public class Storage implements Listener {
     }
 
     public void addSeller(PlayerIdentifier playerId, String sWorld, Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems, Map<String, String> misc, Boolean save) {
-        Storage.sellers.put(bSign.getLocation(), new Seller(playerId, sWorld, containables, activatables, isItems, bSign.getLocation(), misc, save));
+        addSeller(new Seller(playerId, sWorld, containables, activatables, isItems, bSign.getLocation(), misc, save), save);
+    }
+
+    private void addSeller(Seller seller, boolean save) {
+        Seller replaced = Storage.sellers.put(seller.getSignLocation(), seller);
+        if(replaced != null)
+            blockIndex.remove(replaced);
+        blockIndex.add(seller);
         if(save)
-            this.Save();
+            saveSeller(seller);
     }
 
     public void updateSeller(Block bSign, List<Block> containables, List<Block> activatables) {
         Seller seller = Storage.sellers.get(bSign.getLocation());
         seller.setActivatables(activatables);
         seller.setContainables(containables);
+        saveSeller(seller);
     }
 
     public void updateSeller(Block bSign, List<Block> containables, List<Block> activatables, ItemStack[] isItems) {
@@ -315,6 +446,7 @@ public class Storage implements Listener {
         seller.setActivatables(activatables);
         seller.setContainables(containables);
         seller.setItems(isItems);
+        saveSeller(seller);
     }
 
     public Seller getSeller(Location lKey){
@@ -340,8 +472,8 @@ public class Storage implements Listener {
 
     public void removeSeller(Location lKey) {
         if(Storage.sellers.containsKey(lKey)){
-            Storage.sellers.remove(lKey);
-            this.Save();
+            blockIndex.remove(Storage.sellers.remove(lKey));
+            repository.delete(getShopKey(lKey));
         }
     }
 
@@ -349,34 +481,35 @@ public class Storage implements Listener {
         Integer count = 0;
         for(Map.Entry<Location, Seller> entry : Storage.sellers.entrySet())
             if(entry.getValue().isOwner(player)) {
-                Block bSign = Bukkit.getServer().getWorld(entry.getValue().getWorld()).getBlockAt(entry.getKey());
-                if(itemUtil.clickedSign(bSign)) {
-                    String[] sLines = ((Sign) bSign.getState()).getLines();
-                    List<String> operation = SignShopConfig.getBlocks(signshopUtil.getOperation(sLines[0]));
-                    if(operation.isEmpty())
-                        continue;
-                    // Not isOP. No need to count OP signs here because admins aren't really their owner
-                    if(!operation.contains("playerIsOp"))
-                        count++;
-                }
+                List<String> operation = SignShopConfig.getBlocks(entry.getValue().getOperation());
+                if(operation.isEmpty())
+                    continue;
+                // Not isOP. No need to count OP signs here because admins aren't really their owner
+                if(!operation.contains("playerIsOp"))
+                    count++;
             }
         return count;
     }
 
     public List<Block> getSignsFromHolder(Block bHolder) {
         List<Block> signs = new LinkedList<>();
-        for(Map.Entry<Location, Seller> entry : sellers.entrySet())
-            if(entry.getValue().getContainables().contains(bHolder))
-                signs.add(Bukkit.getServer().getWorld(entry.getValue().getWorld()).getBlockAt(entry.getKey()));
+        for(Seller seller : blockIndex.getSellersByContainable(bHolder))
+            signs.add(seller.getSign());
         return signs;
     }
 
     public List<Seller> getShopsByBlock(Block bBlock) {
-        List<Seller> tempsellers = new LinkedList<>();
-        for(Map.Entry<Location, Seller> entry : sellers.entrySet())
-            if(entry.getValue().getActivatables().contains(bBlock) || entry.getValue().getContainables().contains(bBlock))
-                tempsellers.add(entry.getValue());
-        return tempsellers;
+        return blockIndex.getSellers(bBlock);
+    }
+
+    /**
+     * Refreshes the block index entries of the given seller, to be called whenever its linked blocks change
+     *
+     * @param seller Seller whose containables or activatables have changed
+     */
+    public void updateBlockIndex(Seller seller) {
+        if(seller != null && sellers.get(seller.getSignLocation()) == seller)
+            blockIndex.add(seller);
     }
 
     public List<Block> getShopsWithMiscSetting(String key, String value) {
@@ -394,13 +527,6 @@ public class Storage implements Listener {
         return itemSeperator;
     }
 
-    private void copyFile(File in, File out) throws IOException
-    {
-        try (FileChannel inChannel = new FileInputStream(in).getChannel(); FileChannel outChannel = new FileOutputStream(out).getChannel()) {
-            inChannel.transferTo(0, inChannel.size(), outChannel);
-        }
-    }
-
     private static class StorageException extends Exception {
         private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,59 @@
+package org.wargamer2010.signshop.configuration;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.wargamer2010.signshop.SignShop;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * The sellers.yml format
+ */
+public class YamlShopSnapshotFormat implements ShopSnapshotFormat {
+    @Override
+    public String getExtension() {
+        return "yml";
+    }
+
+    @Override
+    public ShopSnapshot read(File file) {
+        FileConfiguration yml = YamlConfiguration.loadConfiguration(file);
+        Map<String, Map<String, Object>> shops = new LinkedHashMap<>();
+        ConfigurationSection sellersection = yml.getConfigurationSection("sellers");
+        if(sellersection != null) {
+            for(String key : sellersection.getKeys(false)) {
+                ConfigurationSection shopsection = sellersection.getConfigurationSection(key);
+                if(shopsection == null)
+                    return null;
+                Map<String, Object> settings = new LinkedHashMap<>();
+                for(Map.Entry<String, Object> setting : shopsection.getValues(false).entrySet()) {
+                    if(setting.getValue() instanceof List) {
+                        List<String> values = new ArrayList<>();
+                        for(Object value : (List<?>) setting.getValue()) {
+                            if(value != null)
+                                values.add(value.toString());
+                        }
+                        settings.put(setting.getKey(), values);
+                    } else if(setting.getValue() != null) {
+                        settings.put(setting.getKey(), setting.getValue().toString());
+                    }
+                }
+                shops.put(key, settings);
+            }
+        }
+        return new ShopSnapshot(shops, yml.getLong(ShopJournal.sequenceKey, 0), yml.getInt("DataVersion", 0));
+    }
+
+    @Override
+    public byte[] encode(Map<String, ? extends Map<String, Object>> shops, long sequence) {
+        FileConfiguration config = new YamlConfiguration();
+        // DataVersion goes first so DataConverter can read it without parsing all shops
+        config.set("DataVersion", SignShop.DATA_VERSION);
+        config.set("sellers", shops);
+        config.set(ShopJournal.sequenceKey, sequence);
+        return config.saveToString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,162 @@
+package org.wargamer2010.signshop.events;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Message parts of which the values may be computed on first use, so parts that are never shown are never built.
+ * Iterating over the entries does not compute them, only asking for the value of an entry does. Replacing or removing
+ * a part that was not computed yet returns null instead of computing it.
+ */
+public class MessageParts extends AbstractMap<String, String> {
+    private final Map<String, Part> parts = new LinkedHashMap<>();
+
+    /**
+     * Sets a part that is computed when its value is first needed, after which the value is kept
+     *
+     * @param name Name of the part
+     * @param value Supplier of the value, may return null
+     */
+    public void putLazy(String name, Supplier<String> value) {
+        parts.put(name, (value instanceof Part ? (Part) value : new Part(value)));
+    }
+
+    /**
+     * @param value Supplier to wrap
+     * @return Supplier that computes the value only once, so it can be set for several parts
+     */
+    public static Supplier<String> memoize(Supplier<String> value) {
+        return (value instanceof Part ? value : new Part(value));
+    }
+
+    @Override
+    public String put(String name, String value) {
+        Part old = parts.put(name, new Part(value));
+        return (old == null ? null : old.getIfComputed());
+    }
+
+    @Override
+    public String get(Object name) {
+        Part part = parts.get(name);
+        return (part == null ? null : part.get());
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return parts.containsKey(name);
+    }
+
+    @Override
+    public String remove(Object name) {
+        Part old = parts.remove(name);
+        return (old == null ? null : old.getIfComputed());
+    }
+
+    @Override
+    public int size() {
+        return parts.size();
+    }
+
+    @Override
+    public void clear() {
+        parts.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return parts.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                Iterator<Entry<String, Part>> iterator = parts.entrySet().iterator();
+                return new Iterator<Entry<String, String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        return new LazyEntry(iterator.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return parts.size();
+            }
+        };
+    }
+
+    private static class LazyEntry implements Entry<String, String> {
+        private final Entry<String, Part> entry;
+
+        private LazyEntry(Entry<String, Part> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public String getValue() {
+            return entry.getValue().get();
+        }
+
+        @Override
+        public String setValue(String value) {
+            return entry.setValue(new Part(value)).getIfComputed();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Entry))
+                return false;
+            Entry<?, ?> otherEntry = (Entry<?, ?>) other;
+            return Objects.equals(getKey(), otherEntry.getKey()) && Objects.equals(getValue(), otherEntry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+    }
+
+    private static class Part implements Supplier<String> {
+        private Supplier<String> supplier;
+        private String value;
+
+        private Part(String value) {
+            this.value = value;
+        }
+
+        private Part(Supplier<String> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public String get() {
+            if(supplier != null) {
+                value = supplier.get();
+                supplier = null;
+            }
+            return value;
+        }
+
+        private String getIfComputed() {
+            return (supplier == null ? value : null);
+        }
+    }
+}
@@ -4,9 +4,13 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.Vault;
+import org.wargamer2010.signshop.player.PlayerIdentifier;
+import org.wargamer2010.signshop.player.PlayerMetadata;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 
 public class SignShopLoginListener implements Listener {
@@ -24,4 +28,17 @@ public class SignShopLoginListener implements Listener {
                 + " Essentials Signs are enabled that conflict with SignShop. Please check the log for more info!");
         }
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if(event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+            return;
+        // Runs off the main thread, so using a shop never has to wait for player.db
+        PlayerMetadata.preload(PlayerIdentifier.GetUUIDSupport() ? event.getUniqueId().toString() : event.getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        PlayerMetadata.release(new PlayerIdentifier(event.getPlayer()).toString());
+    }
 }
@@ -24,6 +24,7 @@ import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.configuration.Storage;
 import org.wargamer2010.signshop.events.*;
+import org.wargamer2010.signshop.operations.BlockAccess;
 import org.wargamer2010.signshop.operations.SignShopArguments;
 import org.wargamer2010.signshop.operations.SignShopArgumentsType;
 import org.wargamer2010.signshop.operations.SignShopOperationListItem;
@@ -129,11 +130,8 @@ public class SignShopPlayerListener implements Listener {
 
         String[] sLines = event.getLines();
         String sOperation = signshopUtil.getOperation(sLines[0]);
-        if(SignShopConfig.getBlocks(sOperation).isEmpty())
-            return;
-
-        List<String> operation = SignShopConfig.getBlocks(sOperation);
-        if(signshopUtil.getSignShopOps(operation) == null)
+        SignShopOperationListItem[] operation = SignShopConfig.getCompiledBlocks(sOperation);
+        if(operation == null || operation.length == 0)
             return;
 
         SignShopPlayer ssPlayer = PlayerCache.getPlayer(event.getPlayer());
@@ -148,6 +146,13 @@ public class SignShopPlayerListener implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onShopSignChanged(SignChangeEvent event) {
+        Seller seller = Storage.get().getSeller(event.getBlock().getLocation());
+        if(seller != null)
+            seller.setSignLines(event.getLines());
+    }
+
     @EventHandler
     public void onPlayerLeave(PlayerQuitEvent event){
         SignShopPlayer signShopPlayer = PlayerCache.getPlayer(event.getPlayer());
@@ -175,14 +180,13 @@ public class SignShopPlayerListener implements Listener {
                 sLines = ((Sign) bClicked.getState()).getLines();
                 sOperation = signshopUtil.getOperation(sLines[0]);
                 SignShopPlayer ssPlayer = PlayerCache.getPlayer(player);
-                if(SignShopConfig.getBlocks(sOperation).isEmpty()) {
+                SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(sOperation);
+                if(SignShopOperations != null && SignShopOperations.length == 0) {
                     if(!runSpecialOperations(event) && !signshopUtil.registerClickedMaterial(event))
                         ssPlayer.sendMessage(SignShopConfig.getError("invalid_operation", null));
                     return;
                 }
 
-                List<String> operation = SignShopConfig.getBlocks(sOperation);
-                List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
                 if(SignShopOperations == null) {
                     ssPlayer.sendMessage(SignShopConfig.getError("invalid_operation", null));
                     return;
@@ -239,36 +243,35 @@ public class SignShopPlayerListener implements Listener {
             }
         } else if(itemUtil.clickedSign(bClicked) && seller != null && (event.getItem() == null || !SignShopConfig.isOPMaterial(event.getItem().getType()))) {
             SignShopPlayer ssOwner = seller.getOwner();
-            sLines = ((Sign) bClicked.getState()).getLines();
-            sOperation = signshopUtil.getOperation(sLines[0]);
+            sOperation = seller.getOperation();
 
             // Verify the operation
-            if(SignShopConfig.getBlocks(sOperation).isEmpty()){
+            SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(sOperation);
+            if(SignShopOperations != null && SignShopOperations.length == 0){
                 return;
             }
 
-            List<String> operation = SignShopConfig.getBlocks(sOperation);
-
-            List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
             SignShopPlayer ssPlayer = PlayerCache.getPlayer(player);
             if(SignShopOperations == null) {
                 ssPlayer.sendMessage(SignShopConfig.getError("invalid_operation", null));
                 return;
             }
 
-            for(Block bContainable : seller.getContainables())
-                itemUtil.loadChunkByBlock(bContainable);
-            for(Block bActivatable : seller.getActivatables())
-                itemUtil.loadChunkByBlock(bActivatable);
+            // Only the chunks of the blocks the operation works with are loaded
+            BlockAccess access = BlockAccess.of(SignShopOperations);
+            if(access.needsContainables())
+                itemUtil.loadChunksOfBlocks(seller.getContainables());
+            if(access.needsActivatables())
+                itemUtil.loadChunksOfBlocks(seller.getActivatables());
 
             if(event.getAction() == Action.RIGHT_CLICK_BLOCK && event.getItem() != null){
                 event.setCancelled(true);
             }
-            SignShopArguments ssArgs = new SignShopArguments(economyUtil.parsePrice(sLines[3]), seller.getItems(), seller.getContainables(), seller.getActivatables(),
+            SignShopArguments ssArgs = new SignShopArguments(seller.getPrice(), seller.getItems(), seller.getContainables(), seller.getActivatables(),
                                                                 ssPlayer, ssOwner, bClicked, sOperation, event.getBlockFace(), event.getAction(), SignShopArgumentsType.Check);
+            ssArgs.setItemRequirements(seller.getItemRequirements());
 
-            if(seller.getRawMisc() != null)
-                ssArgs.miscSettings = seller.getRawMisc();
+            ssArgs.miscSettings = seller.getRawMisc();
             boolean bRequirementsOK = true;
             boolean bReqOKSolid = true;
             boolean bRunOK = false;
@@ -324,13 +327,16 @@ public class SignShopPlayerListener implements Listener {
                 player.updateInventory();
             }
 
-            List<String> chests = new LinkedList<>();
-            for(Map.Entry<String, String> entry : ssArgs.getMessageParts().entrySet())
-                if(entry.getKey().contains("chest"))
-                    chests.add(entry.getValue());
-            String[] sChests = new String[chests.size()]; chests.toArray(sChests);
-            String items = (!ssArgs.hasMessagePart("!items") ? signshopUtil.implode(sChests, " and ") : ssArgs.getMessagePart("!items"));
-            SignShop.logTransaction(player.getName(), seller.getOwner().getName(), sOperation, items, economyUtil.formatMoney(ssArgs.getPrice().get()));
+            // Only build the logged parts when they are logged
+            if(SignShopConfig.getTransactionLog()) {
+                List<String> chests = new LinkedList<>();
+                for(Map.Entry<String, String> entry : ssArgs.getMessageParts().entrySet())
+                    if(entry.getKey().contains("chest"))
+                        chests.add(entry.getValue());
+                String[] sChests = new String[chests.size()]; chests.toArray(sChests);
+                String items = (!ssArgs.hasMessagePart("!items") ? signshopUtil.implode(sChests, " and ") : ssArgs.getMessagePart("!items"));
+                SignShop.logTransaction(player.getName(), seller.getOwner().getName(), sOperation, items, economyUtil.formatMoney(ssArgs.getPrice().get()));
+            }
             return;
         }
         if(event.getItem() != null && seller != null && SignShopConfig.isOPMaterial(event.getItem().getType())) {
@@ -5,7 +5,6 @@ import org.bukkit.ChatColor;
 import org.bukkit.GameMode;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
-import org.bukkit.block.Sign;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -24,7 +23,6 @@ import org.wargamer2010.signshop.operations.SignShopArguments;
 import org.wargamer2010.signshop.operations.SignShopArgumentsType;
 import org.wargamer2010.signshop.operations.SignShopOperationListItem;
 import org.wargamer2010.signshop.player.SignShopPlayer;
-import org.wargamer2010.signshop.util.economyUtil;
 import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
@@ -60,6 +58,7 @@ public class SimpleShopProtector implements Listener {
                 seller.removeMisc(miscname);
             else
                 seller.addMisc(miscname, temp);
+            Storage.get().saveSeller(seller);
         }
     }
 
@@ -74,22 +73,18 @@ public class SimpleShopProtector implements Listener {
         SignShopPlayer ssPlayer = new SignShopPlayer(seller.getOwner().GetIdentifier());
         ssPlayer.setIgnoreMessages(true);
 
-        if(!(seller.getSign().getState() instanceof Sign))
+        if(seller.getSignLines() == null)
             return true;
-        Sign sign = (Sign) seller.getSign().getState();
-
-        SignShopArguments ssArgs = new SignShopArguments(economyUtil.parsePrice(sign.getLines()[3]), seller.getItems(), containables, activatables,
+        SignShopArguments ssArgs = new SignShopArguments(seller.getPrice(), seller.getItems(), containables, activatables,
                 ssPlayer, seller.getOwner(), seller.getSign(), seller.getOperation(), BlockFace.DOWN, Action.LEFT_CLICK_BLOCK, SignShopArgumentsType.Setup);
 
-        List<String> operation = SignShopConfig.getBlocks(seller.getOperation());
-        List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
+        SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(seller.getOperation());
         if (SignShopOperations == null)
             return true;
 
         Boolean bSetupOK = false;
         for (SignShopOperationListItem ssOperation : SignShopOperations) {
-            List<String> params = ssOperation.getParameters();
-            params.addAll(ssOperation.getParameters());
+            List<String> params = new LinkedList<>(ssOperation.getParameters());
             params.add("allowemptychest");
             params.add("allowNoChests");
             ssArgs.setOperationParameters(params);
@@ -24,8 +24,7 @@ public class TimedCommandListener implements Listener {
                 for(String command : commands) {
                     String sCommand = command;
                     if(sCommand != null && sCommand.length() > 0) {
-                        sCommand = SignShopConfig.fillInBlanks(sCommand, cmd.getMessageParts());
-                        sCommand = SignShopConfig.fillInBlanks(sCommand, cmd.getMessageParts());
+                        sCommand = SignShopConfig.fillInCommand(sCommand, cmd.getMessageParts());
                         if(cmd.getCommandType().equals("asOriginalUser"))
                             SignShop.log("Delayed commands can not be run asOriginalUser, shop type: " + cmd.getShopType(), Level.WARNING);
                         if(cmd.getCommandType().equals("asUser"))
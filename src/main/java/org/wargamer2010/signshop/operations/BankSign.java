@@ -61,4 +61,9 @@ public class BankSign implements SignShopOperation {
     public Boolean runOperation(SignShopArguments ssArgs) {
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -0,0 +1,44 @@
+package org.wargamer2010.signshop.operations;
+
+/**
+ * Blocks of a shop an operation works with, the chunks of the other blocks are not loaded for it.
+ * Of the bundled operations only setRedstoneOn, setRedstoneOff, setRedStoneOnTemp and toggleRedstone touch
+ * activatables. Chest, enchantItemInHand, playJukebox and the item operations (give/take shop and player items,
+ * takeVariablePlayerItems) touch containables, the rest touch neither. Operations that do not say otherwise,
+ * such as external ones, get All.
+ */
+public enum BlockAccess {
+    None,
+    Containables,
+    Activatables,
+    All;
+
+    public boolean needsContainables() {
+        return (this == Containables || this == All);
+    }
+
+    public boolean needsActivatables() {
+        return (this == Activatables || this == All);
+    }
+
+    /**
+     * @param operations Blocks of an operation
+     * @return Access needed by all of the given blocks together
+     */
+    public static BlockAccess of(SignShopOperationListItem[] operations) {
+        boolean containables = false;
+        boolean activatables = false;
+        for(SignShopOperationListItem operation : operations) {
+            BlockAccess access = operation.getOperation().getBlockAccess();
+            containables |= access.needsContainables();
+            activatables |= access.needsActivatables();
+        }
+        if(containables && activatables)
+            return All;
+        else if(containables)
+            return Containables;
+        else if(activatables)
+            return Activatables;
+        return None;
+    }
+}
@@ -70,7 +70,7 @@ public class Chest implements SignShopOperation {
         // In case the next operation doesn't write to !items, in other cases it will be overwritten (by f.e. takePlayerItems)
         ItemStack[] isTotalItems = itemUtil.getAllItemStacksForContainables(ssArgs.getContainables().get());
         if(isTotalItems.length > 0) {
-            ssArgs.setMessagePart("!items", itemUtil.itemStackToString(isTotalItems));
+            ssArgs.setItemsMessagePart(isTotalItems);
             ssArgs.miscSettings.put("chest" + iChestnumber, signshopUtil.implode(itemUtil.convertItemStacksToString(isTotalItems), seperator));
         }
 
@@ -120,4 +120,9 @@ public class Chest implements SignShopOperation {
 
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
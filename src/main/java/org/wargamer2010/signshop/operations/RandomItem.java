@@ -29,7 +29,12 @@ public class RandomItem implements SignShopOperation {
         ItemStack[] isRandoms = new ItemStack[1];
         isRandoms[0] = isRandom;
         ssArgs.getItems().set(isRandoms);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
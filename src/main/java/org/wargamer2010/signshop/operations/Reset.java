@@ -17,4 +17,9 @@ public class Reset implements SignShopOperation {
         ssArgs.reset();
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
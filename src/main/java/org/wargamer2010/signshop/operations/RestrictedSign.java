@@ -43,4 +43,9 @@ public class RestrictedSign implements SignShopOperation {
     public Boolean runOperation(SignShopArguments ssArgs) {
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -74,4 +74,9 @@ public class ShareSign implements SignShopOperation {
     public Boolean runOperation(SignShopArguments ssArgs) {
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
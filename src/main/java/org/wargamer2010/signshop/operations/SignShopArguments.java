@@ -10,8 +10,11 @@ import org.bukkit.event.block.Action;
 import org.bukkit.inventory.ItemStack;
 import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.Vault;
+import org.wargamer2010.signshop.blocks.ItemRequirements;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
+import org.wargamer2010.signshop.configuration.Storage;
 import org.wargamer2010.signshop.events.IMessagePartContainer;
+import org.wargamer2010.signshop.events.MessageParts;
 import org.wargamer2010.signshop.events.SSMoneyEventType;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.util.economyUtil;
@@ -19,6 +22,7 @@ import org.wargamer2010.signshop.util.itemUtil;
 import org.wargamer2010.signshop.util.signshopUtil;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class SignShopArguments implements IMessagePartContainer {
     public static String seperator = "~";
@@ -48,8 +52,9 @@ public class SignShopArguments implements IMessagePartContainer {
             super.set(pItems);
         }
     };
+    private ItemRequirements rootItemRequirements = null;
     private SSMoneyEventType moneyEventType = SSMoneyEventType.Unknown;
-    private final Map<String, String> messageParts = new LinkedHashMap<>();
+    private final MessageParts messageParts = new MessageParts();
 
     public SignShopArguments(double pfPrice, ItemStack[] pisItems, List<Block> pContainables, List<Block> pActivatables,
                              SignShopPlayer pssPlayer, SignShopPlayer pssOwner, Block pbSign, String psOperation, BlockFace pbfBlockFace, Action ac, SignShopArgumentsType type) {
@@ -75,8 +80,8 @@ public class SignShopArguments implements IMessagePartContainer {
     }
 
     public SignShopArguments(Seller seller, SignShopPlayer player, SignShopArgumentsType type) {
-        if (seller.getSign().getState() instanceof Sign)
-            fPrice.setRoot(economyUtil.parsePrice(((Sign) seller.getSign().getState()).getLine(3)));
+        if (seller.getSignLines() != null)
+            fPrice.setRoot(seller.getPrice());
 
         isItems.setRoot(seller.getItems());
         containables.setRoot(seller.getContainables());
@@ -128,12 +133,14 @@ public class SignShopArguments implements IMessagePartContainer {
             if (Vault.getPermission() != null && ssPlayer.get() != null && ssPlayer.get().getWorld() != null) {
                 World world = ssPlayer.get().getWorld();
                 OfflinePlayer name = ssPlayer.get().getOfflinePlayer();
-                setMessagePart("!permgroup", Vault.getPermission().getPrimaryGroup(world.getName(), name));
+                setMessagePart("!permgroup", () -> Vault.getPermission().getPrimaryGroup(world.getName(), name));
             }
         }
 
-        if (fPrice.get() != null)
-            setMessagePart("!price", economyUtil.formatMoney(fPrice.get()));
+        if (fPrice.get() != null) {
+            double price = fPrice.get();
+            setMessagePart("!price", () -> economyUtil.formatMoney(price));
+        }
 
         if (ssOwner.get() != null)
             setMessagePart("!owner", ssOwner.get().getName());
@@ -143,15 +150,30 @@ public class SignShopArguments implements IMessagePartContainer {
             setMessagePart("!y", Integer.toString(bSign.get().getY()));
             setMessagePart("!z", Integer.toString(bSign.get().getZ()));
 
-            if (bSign.get().getState() instanceof Sign) {
-                String[] sLines = ((Sign) bSign.get().getState()).getLines();
-                for (int i = 0; i < sLines.length; i++)
-                    setMessagePart(("!line" + (i + 1)), (sLines[i] == null ? "" : sLines[i]));
+            // Shops keep the text of their sign, other signs are only read from the block if a line is shown
+            Block sign = bSign.get();
+            Seller seller = (Storage.get() != null ? Storage.get().getSeller(sign.getLocation()) : null);
+            String[] shopLines = (seller != null ? seller.getSignLines() : null);
+            if (shopLines != null || (seller == null && itemUtil.clickedSign(sign))) {
+                // Read once for all four lines
+                String[][] read = { shopLines };
+                Supplier<String[]> lines = () -> {
+                    if (read[0] == null)
+                        read[0] = ((Sign) sign.getState()).getLines();
+                    return read[0];
+                };
+                for (int i = 0; i < 4; i++) {
+                    int line = i;
+                    setMessagePart(("!line" + (i + 1)), () -> {
+                        String[] sLines = lines.get();
+                        return (sLines[line] == null ? "" : sLines[line]);
+                    });
+                }
             }
         }
 
         if (isItems.get() != null && isItems.get().length > 0) {
-            setMessagePart("!items", itemUtil.itemStackToString(isItems.get()));
+            setItemsMessagePart(isItems.get());
         }
     }
 
@@ -180,6 +202,22 @@ public class SignShopArguments implements IMessagePartContainer {
         return isItems;
     }
 
+    /**
+     * @param requirements Requirements of the root items, as precomputed by the shop they belong to
+     */
+    public void setItemRequirements(ItemRequirements requirements) {
+        rootItemRequirements = requirements;
+    }
+
+    /**
+     * @return The items as they are matched against inventories, precomputed unless an operation replaced them
+     */
+    public ItemRequirements getItemRequirements() {
+        if(!isItems.isSpecial() && rootItemRequirements != null)
+            return rootItemRequirements;
+        return ItemRequirements.of(isItems.get());
+    }
+
     public SignShopArgument<List<Block>> getContainables() {
         return containables;
     }
@@ -280,6 +318,37 @@ public class SignShopArguments implements IMessagePartContainer {
         messageParts.put(name, value);
     }
 
+    /**
+     * Sets a message part that is only computed if a message that contains it is shown
+     *
+     * @param name Name of the part
+     * @param value Supplier of the value
+     */
+    public void setMessagePart(String name, Supplier<String> value) {
+        Supplier<String> part = MessageParts.memoize(value);
+        messageParts.putLazy(name, part);
+        if (forceMessageKeys.containsKey(name))
+            messageParts.putLazy(forceMessageKeys.get(name), part);
+    }
+
+    /**
+     * Sets !items to the given items, of which the names are only built if a message shows them. The amounts shown
+     * are those the stacks have now, as adding stacks to an inventory may lower their amounts later on.
+     *
+     * @param items Items to show
+     */
+    public void setItemsMessagePart(ItemStack[] items) {
+        if(items == null) {
+            setMessagePart("!items", "");
+            return;
+        }
+        ItemStack[] shown = items.clone();
+        int[] amounts = new int[shown.length];
+        for(int i = 0; i < shown.length; i++)
+            amounts[i] = (shown[i] == null ? 0 : shown[i].getAmount());
+        setMessagePart("!items", () -> itemUtil.itemStackToString(shown, amounts));
+    }
+
     public boolean hasMessagePart(String name) {
         return messageParts.containsKey(name);
     }
@@ -4,9 +4,7 @@ package org.wargamer2010.signshop.operations;
 import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.events.SSEvent;
-import org.wargamer2010.signshop.util.signshopUtil;
 
-import java.util.List;
 import java.util.logging.Level;
 
 public abstract class SignShopEventHandler implements SignShopOperation {
@@ -18,13 +16,12 @@ public abstract class SignShopEventHandler implements SignShopOperation {
     public abstract boolean handleEvent(SignShopArguments ssArgs, SSEvent event);
 
     public static boolean dispatchEvent(SignShopArguments ssArgs, SSEvent event, String operation) {
-        List<String> stringops = SignShopConfig.getBlocks(operation);
-        if(stringops.isEmpty()) {
+        SignShopOperationListItem[] opitems = SignShopConfig.getCompiledBlocks(operation);
+        if(opitems == null || opitems.length == 0) {
             SignShop.log("Invalid operation found while trying to dispatch event: " + operation, Level.WARNING);
             return false;
         }
 
-        List<SignShopOperationListItem> opitems = signshopUtil.getSignShopOps(stringops);
         for(SignShopOperationListItem item : opitems) {
             if(item.getOperation() instanceof SignShopEventHandler) {
                 ssArgs.setOperationParameters(item.getParameters());
@@ -6,4 +6,11 @@ public interface SignShopOperation {
     Boolean checkRequirements(SignShopArguments ssArgs, Boolean activeCheck);
 
     Boolean runOperation(SignShopArguments ssArgs);
+
+    /**
+     * @return Blocks of the shop this operation works with, all of them unless the operation says otherwise
+     */
+    default BlockAccess getBlockAccess() {
+        return BlockAccess.All;
+    }
 }
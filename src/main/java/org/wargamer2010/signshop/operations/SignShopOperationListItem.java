@@ -1,6 +1,8 @@
 
 package org.wargamer2010.signshop.operations;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class SignShopOperationListItem {
@@ -9,13 +11,16 @@ public class SignShopOperationListItem {
 
     public SignShopOperationListItem(SignShopOperation op, List<String> param) {
         operation = op;
-        parameters = param;
+        parameters = Collections.unmodifiableList(new ArrayList<>(param));
     }
 
     public SignShopOperation getOperation() {
         return operation;
     }
 
+    /**
+     * @return Parameters of the block, which can not be modified as the items are shared by all shops
+     */
     public List<String> getParameters() {
         return parameters;
     }
@@ -78,4 +78,9 @@ public class cooldown implements SignShopOperation {
         ssArgs.setMessagePart("!param", param);
         return ok;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
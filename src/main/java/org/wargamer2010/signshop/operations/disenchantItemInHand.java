@@ -31,4 +31,9 @@ public class disenchantItemInHand implements SignShopOperation {
             backup.removeEnchantment(entry.getKey());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
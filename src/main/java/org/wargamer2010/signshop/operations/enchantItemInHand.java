@@ -131,4 +131,9 @@ public class enchantItemInHand implements SignShopOperation {
             return itemUtil.safelyAddEnchantments(isInHand, enchantments);
         }
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
@@ -30,4 +30,9 @@ public class giveOwnerMoney implements SignShopOperation {
         ssArgs.getPrice().set(event.getPrice());
         return (!event.isCancelled() && event.isHandled());
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
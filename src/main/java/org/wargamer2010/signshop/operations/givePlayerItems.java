@@ -22,7 +22,7 @@ public class givePlayerItems implements SignShopOperation {
         }
         if(isTotalItems.length > 0)
             ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -35,7 +35,7 @@ public class givePlayerItems implements SignShopOperation {
             return false;
         }
 
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         if(ssArgs.isOperationParameter("oneslot")) {
             boolean bEmptySlot = false;
             for(ItemStack stack : ssArgs.getPlayer().get().getPlayer().getInventory().getContents()) {
@@ -47,7 +47,7 @@ public class givePlayerItems implements SignShopOperation {
                 return false;
             }
         } else if(!ssArgs.isOperationParameter("ignorefull")) {
-            if(!ssArgs.getPlayer().get().getVirtualInventory().isStockOK(ssArgs.getItems().get(), false)) {
+            if(!ssArgs.getPlayer().get().getVirtualInventory().isStockOK(ssArgs.getItemRequirements(), false)) {
                 ssArgs.sendFailedRequirementsMessage("player_overstocked");
                 return false;
             }
@@ -62,4 +62,9 @@ public class givePlayerItems implements SignShopOperation {
             ssArgs.getPlayer().get().sendMessage(SignShopConfig.getError("could_not_complete_operation", null));
         return transactedAll;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
@@ -42,4 +42,9 @@ public class givePlayerXP implements SignShopOperation {
         ssArgs.setMessagePart("!xp", XP.toString());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -1,9 +1,10 @@
 package org.wargamer2010.signshop.operations;
 
 import org.bukkit.ChatColor;
-import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.blocks.ItemRequirements;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
+import org.wargamer2010.signshop.player.PlacementPlan;
 import org.wargamer2010.signshop.util.itemUtil;
 
 import java.util.HashMap;
@@ -23,7 +24,7 @@ public class giveShopItems implements SignShopOperation {
         }
         if(isTotalItems.length > 0)
             ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -34,27 +35,33 @@ public class giveShopItems implements SignShopOperation {
             return false;
         }
 
-        Boolean bStockOK = itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), false);
+        Boolean bStockOK = itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItemRequirements(), false);
         if(!bStockOK)
             ssArgs.sendFailedRequirementsMessage("overstocked");
         if(activeCheck && !bStockOK)
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_RED);
         else if(activeCheck)
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_BLUE);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return bStockOK;
     }
 
     @Override
     public Boolean runOperation(SignShopArguments ssArgs) {
-        InventoryHolder Holder = itemUtil.getFirstStockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), false);
-        if(Holder == null)
+        ItemRequirements required = ssArgs.getItemRequirements();
+        PlacementPlan plan = itemUtil.getFirstPlacementForContainables(ssArgs.getContainables().get(), required, ssArgs.getItems().get());
+        if(plan == null)
             return false;
-        HashMap<Integer, ItemStack> isLeftOver = Holder.getInventory().addItem(ssArgs.getItems().get());
-        if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), false))
+        HashMap<Integer, ItemStack> isLeftOver = plan.apply();
+        if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), required, false))
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_RED);
         else
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_BLUE);
         return (isLeftOver.isEmpty());
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
@@ -90,4 +90,9 @@ public class giveTownMoney implements SignShopOperation {
             }
         return false;
 	}
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -22,4 +22,9 @@ public class healPlayer implements SignShopOperation {
         ssArgs.getPlayer().get().getPlayer().setHealth(20.0);
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -36,4 +36,9 @@ public class oneTime implements SignShopOperation {
             ssPlayer.sendMessage("Could not set the Metadata needed for this shop. Please check the logs for more information.");
         return ok;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
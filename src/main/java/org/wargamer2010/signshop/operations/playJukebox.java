@@ -8,7 +8,6 @@ import org.bukkit.inventory.ItemStack;
 import org.wargamer2010.signshop.Seller;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.configuration.Storage;
-import org.wargamer2010.signshop.util.itemUtil;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -45,7 +44,7 @@ public class playJukebox implements SignShopOperation {
             return false;
         }
         ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -98,4 +97,9 @@ public class playJukebox implements SignShopOperation {
         seller.setVolatile("lastrecord", sLastrecord);
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
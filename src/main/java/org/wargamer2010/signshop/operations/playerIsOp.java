@@ -21,4 +21,9 @@ public class playerIsOp implements SignShopOperation {
     public Boolean runOperation(SignShopArguments ssArgs) {        
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -86,4 +86,9 @@ public class promotePlayer implements SignShopOperation {
 
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
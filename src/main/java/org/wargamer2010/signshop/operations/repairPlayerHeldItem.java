@@ -48,4 +48,9 @@ public class repairPlayerHeldItem implements SignShopOperation {
         ssArgs.getPlayer().get().getItemInHand().setItemMeta((ItemMeta) meta);
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
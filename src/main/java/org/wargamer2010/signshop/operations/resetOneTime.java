@@ -41,4 +41,9 @@ public class resetOneTime implements SignShopOperation {
             ssPlayer.sendMessage("Could not reset the Metadata needed for this shop. Please check the logs for more information.");
         return ok;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
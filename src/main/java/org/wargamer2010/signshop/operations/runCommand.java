@@ -32,8 +32,7 @@ public class runCommand implements SignShopOperation {
                 boolean ok = true;
                 String sCommand = command;
                 if(sCommand != null && sCommand.length() > 0) {
-                    sCommand = SignShopConfig.fillInBlanks(sCommand, ssArgs.getMessageParts());
-                    sCommand = SignShopConfig.fillInBlanks(sCommand, ssArgs.getMessageParts());
+                    sCommand = SignShopConfig.fillInCommand(sCommand, ssArgs.getMessageParts());
                     if(ssArgs.isOperationParameter("asOriginalUser")) {
                         ok = Bukkit.getServer().dispatchCommand(ssPlayer.getPlayer(), sCommand);
                     } else if(ssArgs.isOperationParameter("asUser")) {
@@ -53,4 +52,9 @@ public class runCommand implements SignShopOperation {
         }
         return isOK;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
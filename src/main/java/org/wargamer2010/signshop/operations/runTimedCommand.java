@@ -43,4 +43,9 @@ public class runTimedCommand implements SignShopOperation {
         // No commands to run
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
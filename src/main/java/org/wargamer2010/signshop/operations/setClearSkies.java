@@ -29,4 +29,9 @@ public class setClearSkies implements SignShopOperation {
         SignShopPlayer.broadcastMsg(world,SignShopConfig.getError("made_clear_skies", ssArgs.getMessageParts()));
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -22,4 +22,9 @@ public class setDayTime implements SignShopOperation {
         SignShopPlayer.broadcastMsg(world, SignShopConfig.getError("made_day", ssArgs.getMessageParts()));
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -22,4 +22,9 @@ public class setNightTime implements SignShopOperation {
         SignShopPlayer.broadcastMsg(world, SignShopConfig.getError("made_night", ssArgs.getMessageParts()));
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -29,4 +29,9 @@ public class setRaining implements SignShopOperation {
         SignShopPlayer.broadcastMsg(world, SignShopConfig.getError("made_rain", ssArgs.getMessageParts()));
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -77,4 +77,9 @@ public class setRedStoneOnTemp implements SignShopOperation {
 
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Activatables;
+    }
 }
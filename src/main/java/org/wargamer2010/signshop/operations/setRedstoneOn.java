@@ -61,4 +61,9 @@ public class setRedstoneOn implements SignShopOperation {
 
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Activatables;
+    }
 }
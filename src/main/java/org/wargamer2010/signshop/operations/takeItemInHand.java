@@ -1,7 +1,6 @@
 package org.wargamer2010.signshop.operations;
 
 import org.bukkit.inventory.ItemStack;
-import org.wargamer2010.signshop.util.itemUtil;
 
 public class takeItemInHand implements SignShopOperation {
     @Override
@@ -20,7 +19,7 @@ public class takeItemInHand implements SignShopOperation {
             ItemStack[] isItems = new ItemStack[1];
             isItems[0] = ssArgs.getPlayer().get().getItemInHand();
             ssArgs.getItems().set(isItems);
-            ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+            ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         }
         return true;
     }
@@ -33,4 +32,9 @@ public class takeItemInHand implements SignShopOperation {
         ssArgs.getPlayer().get().takePlayerItems(ssArgs.getItems().get());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -22,4 +22,9 @@ public class takePlayerInventory implements SignShopOperation {
         player.getInventory().clear();        
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
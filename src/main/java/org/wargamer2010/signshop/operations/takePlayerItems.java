@@ -22,7 +22,7 @@ public class takePlayerItems implements SignShopOperation {
         }
         if(isTotalItems.length > 0)
             ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -35,8 +35,8 @@ public class takePlayerItems implements SignShopOperation {
             return false;
         }
         SignShopPlayer player = ssArgs.getPlayer().get();
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
-        if(!player.getVirtualInventory().isStockOK(ssArgs.getItems().get(), true)) {
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
+        if(!player.getVirtualInventory().isStockOK(ssArgs.getItemRequirements(), true)) {
             ssArgs.sendFailedRequirementsMessage("player_doesnt_have_items");
             return false;
         }
@@ -50,4 +50,9 @@ public class takePlayerItems implements SignShopOperation {
             ssArgs.getPlayer().get().sendMessage(SignShopConfig.getError("could_not_complete_operation", null));
         return transactedAll;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
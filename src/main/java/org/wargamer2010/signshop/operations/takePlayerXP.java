@@ -57,4 +57,9 @@ public class takePlayerXP implements SignShopOperation {
         ssArgs.setMessagePart("!xp", XP.toString());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -3,6 +3,7 @@ package org.wargamer2010.signshop.operations;
 import org.bukkit.ChatColor;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.blocks.ItemRequirements;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.util.itemUtil;
 
@@ -21,7 +22,7 @@ public class takeShopItems implements SignShopOperation {
         }
         if(isTotalItems.length > 0)
             ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -32,8 +33,8 @@ public class takeShopItems implements SignShopOperation {
             return false;
         }
 
-        Boolean bStockOK = itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), true);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        Boolean bStockOK = itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItemRequirements(), true);
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         if(!bStockOK)
             ssArgs.sendFailedRequirementsMessage("out_of_stock");
         if(!bStockOK && activeCheck)
@@ -46,15 +47,21 @@ public class takeShopItems implements SignShopOperation {
 
     @Override
     public Boolean runOperation(SignShopArguments ssArgs) {
-        InventoryHolder Holder = itemUtil.getFirstStockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), true);
+        ItemRequirements required = ssArgs.getItemRequirements();
+        InventoryHolder Holder = itemUtil.getFirstStockOKForContainables(ssArgs.getContainables().get(), required, true);
         if(Holder == null)
             return false;
         Holder.getInventory().removeItem(ssArgs.getItems().get());
-        if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), ssArgs.getItems().get(), true))
+        if(!itemUtil.stockOKForContainables(ssArgs.getContainables().get(), required, true))
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_RED);
         else
             itemUtil.updateStockStatus(ssArgs.getSign().get(), ChatColor.DARK_BLUE);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
@@ -91,4 +91,9 @@ public class takeTownMoney implements SignShopOperation {
                 return false;
             }
 	}
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.None;
+    }
 }
@@ -4,6 +4,7 @@ import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.Damageable;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.wargamer2010.signshop.blocks.ItemFingerprint;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.player.SignShopPlayer;
 import org.wargamer2010.signshop.util.itemUtil;
@@ -18,14 +19,12 @@ public class takeVariablePlayerItems implements SignShopOperation {
         if(ssArgs.isOperationParameter("acceptdamaged")) {
             short nodamage = 0;
             Material mat;
-            Map<ItemStack, Integer> map = itemUtil.StackToMap(ssArgs.getItems().get());
+            Map<ItemFingerprint, Integer> map = itemUtil.StackToMap(ssArgs.getItems().get());
             if(map.size() > 1) {
                 ssArgs.getPlayer().get().sendMessage(SignShopConfig.getError("damaged_items_shop_homogeneous", ssArgs.getMessageParts()));
                 return false;
             }
-            ItemStack[] arr = new ItemStack[1];
-            map.keySet().toArray(arr);
-            mat = arr[0].getType();
+            mat = map.keySet().iterator().next().getType();
             boolean didnull = false;
 
             for(ItemStack stack : inv_stacks) {
@@ -49,17 +48,17 @@ public class takeVariablePlayerItems implements SignShopOperation {
         }
         sortedbydurability.sort(new StackDurabilityPair());
 
-        Map<ItemStack, Integer> map = itemUtil.StackToMap(actual);
-        ItemStack neededstack;
+        Map<ItemFingerprint, Integer> map = itemUtil.StackToMap(actual);
+        ItemFingerprint neededitem;
         int needed;
         List<ItemStack> toTakeForReal = new LinkedList<>();
 
-        for(Map.Entry<ItemStack, Integer> entry : map.entrySet()) {
-            neededstack = entry.getKey();
+        for(Map.Entry<ItemFingerprint, Integer> entry : map.entrySet()) {
+            neededitem = entry.getKey();
             needed = entry.getValue();
             for(StackDurabilityPair pair : sortedbydurability) {
                 ItemStack stackfrominv = pair.getStack();
-                if(itemUtil.itemstackEqual(stackfrominv, neededstack, true)) {
+                if(stackfrominv.getType() == neededitem.getType() && neededitem.equalsIgnoringDamage(ItemFingerprint.of(stackfrominv))) {
                     ItemStack bak = itemUtil.getBackupSingleItemStack(stackfrominv);
                     if(bak.getAmount() >= needed)
                         bak.setAmount(needed);
@@ -90,7 +89,7 @@ public class takeVariablePlayerItems implements SignShopOperation {
             return false;
         }
         ssArgs.getItems().set(isTotalItems);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         return true;
     }
 
@@ -108,7 +107,7 @@ public class takeVariablePlayerItems implements SignShopOperation {
 
         SignShopPlayer ssPlayer = ssArgs.getPlayer().get();
 
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         HashMap<ItemStack[], Double> variableAmount = ssPlayer.getVirtualInventory().variableAmount(ssArgs.getItems().get());
         Double iCount = (Double)variableAmount.values().toArray()[0];
 
@@ -125,7 +124,7 @@ public class takeVariablePlayerItems implements SignShopOperation {
         }
 
         ssArgs.getItems().set(isActual);
-        ssArgs.setMessagePart("!items", itemUtil.itemStackToString(ssArgs.getItems().get()));
+        ssArgs.setItemsMessagePart(ssArgs.getItems().get());
         if(iCount != 0.0d)
             ssArgs.getPrice().set(ssArgs.getPrice().get() * iCount * pricemod);
         else
@@ -177,4 +176,9 @@ public class takeVariablePlayerItems implements SignShopOperation {
             return (o1.getDurability() - o2.getDurability());
         }
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Containables;
+    }
 }
@@ -41,4 +41,9 @@ public class toggleRedstone implements SignShopOperation {
 
         return true;
     }
+
+    @Override
+    public BlockAccess getBlockAccess() {
+        return BlockAccess.Activatables;
+    }
 }
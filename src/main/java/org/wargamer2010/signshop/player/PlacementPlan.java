@@ -0,0 +1,56 @@
+package org.wargamer2010.signshop.player;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.HashMap;
+
+/**
+ * Slots of an inventory that items will be put in and the amounts they end up with, as planned by
+ * {@link VirtualInventory#planPlacement(ItemStack[])}. The plan can be carried out as long as the planned slots
+ * have not changed since.
+ */
+public class PlacementPlan {
+    private final Inventory inventory;
+    private final ItemStack[] items;
+    private final int[] slots;
+    private final int[] amountsBefore;
+    private final int[] amountsAfter;
+    private final ItemStack[] stacks;
+
+    PlacementPlan(Inventory inventory, ItemStack[] items, int[] slots, int[] amountsBefore, int[] amountsAfter, ItemStack[] stacks) {
+        this.inventory = inventory;
+        this.items = items;
+        this.slots = slots;
+        this.amountsBefore = amountsBefore;
+        this.amountsAfter = amountsAfter;
+        this.stacks = stacks;
+    }
+
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Puts the items in the planned slots. If the inventory has changed since the plan was made, the items are
+     * added the same way {@link Inventory#addItem(ItemStack...)} does instead.
+     *
+     * @return The items that did not fit, by their index in the planned items
+     */
+    public HashMap<Integer, ItemStack> apply() {
+        for(int i = 0; i < slots.length; i++) {
+            ItemStack current = inventory.getItem(slots[i]);
+            int amount = (current == null || current.getType() == Material.AIR ? 0 : current.getAmount());
+            if(amount != amountsBefore[i] || (amount > 0 && !current.isSimilar(stacks[i])))
+                return inventory.addItem(items);
+        }
+
+        for(int i = 0; i < slots.length; i++) {
+            ItemStack stack = stacks[i].clone();
+            stack.setAmount(amountsAfter[i]);
+            inventory.setItem(slots[i], stack);
+        }
+        return new HashMap<>();
+    }
+}
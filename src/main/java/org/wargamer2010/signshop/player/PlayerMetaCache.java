@@ -0,0 +1,229 @@
+package org.wargamer2010.signshop.player;
+
+import org.bukkit.scheduler.BukkitRunnable;
+import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.blocks.SSDatabase;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+/**
+ * In memory copy of the metadata of players. Reads never touch the database once a player is loaded, changes are
+ * applied to the copy right away and written to player.db by a background task, in one transaction per run.
+ * Players are loaded when they log in, or on first access for players that are offline, and dropped again after
+ * they quit and their changes have been written.
+ */
+public class PlayerMetaCache extends BukkitRunnable {
+    private static final String filename = "player.db";
+    private static final long flushInterval = 20;
+    private static PlayerMetaCache instance = null;
+
+    private final Map<String, PlayerEntry> entries = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Change> pending = new LinkedBlockingQueue<>();
+    // Changes of a failed transaction, retried before anything queued later
+    private final List<Change> failed = new ArrayList<>();
+
+    private PlayerMetaCache() {
+
+    }
+
+    public static void init() {
+        if(instance != null)
+            return;
+        instance = new PlayerMetaCache();
+        instance.runTaskTimerAsynchronously(SignShop.getInstance(), flushInterval, flushInterval);
+    }
+
+    /**
+     * Writes all pending changes on the calling thread and stops the background task
+     */
+    public static void dispose() {
+        if(instance == null)
+            return;
+        try {
+            instance.cancel();
+        } catch(IllegalStateException ignored) {
+            // Task was never scheduled
+        }
+        instance.run();
+        instance = null;
+    }
+
+    static PlayerMetaCache get() {
+        if(instance == null)
+            init();
+        return instance;
+    }
+
+    /**
+     * Loads the metadata of a player ahead of time, safe to call from any thread
+     *
+     * @param plugin Name of the plugin owning the metadata
+     * @param player String identifier of the player
+     */
+    public void preload(String plugin, String player) {
+        getEntry(plugin, player);
+    }
+
+    /**
+     * Drops the metadata of a player from memory once all of its changes are written
+     *
+     * @param plugin Name of the plugin owning the metadata
+     * @param player String identifier of the player
+     */
+    public void release(String plugin, String player) {
+        String key = getKey(plugin, player);
+        PlayerEntry entry = entries.get(key);
+        if(entry == null)
+            return;
+        synchronized(entry) {
+            if(entry.pending == 0)
+                entries.remove(key, entry);
+            else
+                entry.released = true;
+        }
+    }
+
+    String get(String plugin, String player, String metakey) {
+        PlayerEntry entry = getEntry(plugin, player);
+        synchronized(entry) {
+            return entry.values.get(metakey);
+        }
+    }
+
+    void set(String plugin, String player, String metakey, String metavalue) {
+        PlayerEntry entry = getEntry(plugin, player);
+        synchronized(entry) {
+            entry.values.put(metakey, metavalue);
+            entry.pending++;
+        }
+        pending.add(new Change(entry, metakey, metavalue, false));
+    }
+
+    boolean remove(String plugin, String player, String metakey) {
+        PlayerEntry entry = getEntry(plugin, player);
+        synchronized(entry) {
+            if(entry.values.remove(metakey) == null)
+                return false;
+            entry.pending++;
+        }
+        pending.add(new Change(entry, metakey, null, false));
+        return true;
+    }
+
+    void removeByPrefix(String plugin, String player, String prefix) {
+        PlayerEntry entry = getEntry(plugin, player);
+        synchronized(entry) {
+            // Same as the LIKE used on the database, which ignores case
+            String lowerPrefix = prefix.toLowerCase();
+            entry.values.keySet().removeIf(metakey -> metakey.toLowerCase().startsWith(lowerPrefix));
+            entry.pending++;
+        }
+        pending.add(new Change(entry, prefix, null, true));
+    }
+
+    private PlayerEntry getEntry(String plugin, String player) {
+        return entries.computeIfAbsent(getKey(plugin, player), key -> load(plugin, player));
+    }
+
+    private static String getKey(String plugin, String player) {
+        return plugin + "/" + player;
+    }
+
+    private static PlayerEntry load(String plugin, String player) {
+        PlayerEntry entry = new PlayerEntry(plugin, player);
+        SSDatabase metadb = new SSDatabase(filename);
+        try {
+            Map<Integer, Object> params = new LinkedHashMap<>();
+            params.put(1, plugin);
+            params.put(2, player);
+            metadb.query("SELECT Metakey, Metavalue FROM PlayerMeta WHERE Plugin = ? AND Playername = ?", params, set -> {
+                while(set.next())
+                    entry.values.put(set.getString("Metakey"), set.getString("Metavalue"));
+                return null;
+            });
+        } finally {
+            metadb.close();
+        }
+        return entry;
+    }
+
+    @Override
+    public synchronized void run() {
+        List<Change> changes = new ArrayList<>(failed);
+        failed.clear();
+        pending.drainTo(changes);
+        if(changes.isEmpty())
+            return;
+
+        SSDatabase metadb = new SSDatabase(filename);
+        boolean written;
+        try {
+            written = metadb.transaction(() -> {
+                Map<Integer, Object> params = new LinkedHashMap<>();
+                for(Change change : changes) {
+                    params.clear();
+                    params.put(1, change.entry.plugin);
+                    params.put(2, change.entry.player);
+                    params.put(3, (change.prefix ? change.metakey + "%" : change.metakey));
+                    if(change.metavalue != null) {
+                        // Plugin, Playername and Metakey are unique, so this replaces the old value
+                        params.put(4, change.metavalue);
+                        metadb.update("INSERT OR REPLACE INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)", params);
+                    } else if(change.prefix) {
+                        metadb.update("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey LIKE ?", params);
+                    } else {
+                        metadb.update("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params);
+                    }
+                }
+            });
+        } finally {
+            metadb.close();
+        }
+
+        if(!written) {
+            SignShop.log("Could not write " + changes.size() + " player metadata changes to " + filename + ", will try again.", Level.WARNING);
+            failed.addAll(changes);
+            return;
+        }
+
+        for(Change change : changes) {
+            PlayerEntry entry = change.entry;
+            synchronized(entry) {
+                entry.pending--;
+                if(entry.pending == 0 && entry.released)
+                    entries.remove(getKey(entry.plugin, entry.player), entry);
+            }
+        }
+    }
+
+    private static class PlayerEntry {
+        private final String plugin;
+        private final String player;
+        private final Map<String, String> values = new HashMap<>();
+        // Changes queued but not written yet, guarded by the entry
+        private int pending = 0;
+        private boolean released = false;
+
+        private PlayerEntry(String plugin, String player) {
+            this.plugin = plugin;
+            this.player = player;
+        }
+    }
+
+    private static class Change {
+        private final PlayerEntry entry;
+        private final String metakey;
+        private final String metavalue;
+        private final boolean prefix;
+
+        private Change(PlayerEntry entry, String metakey, String metavalue, boolean prefix) {
+            this.entry = entry;
+            this.metakey = metakey;
+            this.metavalue = metavalue;
+            this.prefix = prefix;
+        }
+    }
+}
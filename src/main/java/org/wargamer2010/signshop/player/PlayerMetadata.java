@@ -1,20 +1,19 @@
 
 package org.wargamer2010.signshop.player;
 
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.plugin.Plugin;
 import org.wargamer2010.signshop.SignShop;
+import org.wargamer2010.signshop.blocks.DatabaseSchema;
 import org.wargamer2010.signshop.blocks.SSDatabase;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.logging.Level;
 
 public class PlayerMetadata {
     private static final String filename = "player.db";
+    private static final int conversionBatchSize = 500;
     private final SignShopPlayer ssPlayer;
     private final Plugin plugin;
 
@@ -26,11 +25,28 @@ public class PlayerMetadata {
     public static void init() {
         SSDatabase metadb = new SSDatabase(filename);
         try {
-            if(!metadb.tableExists("PlayerMeta"))
-                metadb.runStatement("CREATE TABLE PlayerMeta ( PlayerMetaID INTEGER, Playername TEXT NOT NULL, Plugin TEXT NOT NULL, Metakey TEXT NOT NULL, Metavalue TEXT NOT NULL, PRIMARY KEY(PlayerMetaID) )", null, false);
+            // The last step is left to convertToUuid, which applies it once all names are converted
+            if(metadb.getSchemaVersion() < DatabaseSchema.playersConvertedVersion)
+                metadb.migrate(DatabaseSchema.players.subList(0, DatabaseSchema.playersConvertedVersion - 1));
+            else
+                metadb.migrate(DatabaseSchema.players);
         } finally {
             metadb.close();
         }
+        PlayerMetaCache.init();
+    }
+
+    /**
+     * Loads the metadata of a player into memory, safe to call from any thread
+     *
+     * @param playerId String identifier of the player
+     */
+    public static void preload(String playerId) {
+        PlayerMetaCache.get().preload(SignShop.getInstance().getName(), playerId);
+    }
+
+    public static void release(String playerId) {
+        PlayerMetaCache.get().release(SignShop.getInstance().getName(), playerId);
     }
 
     public boolean hasMeta(String key) {
@@ -38,165 +54,132 @@ public class PlayerMetadata {
     }
 
     /**
-     * Attempts to convert all player names to UUID where needed
+     * Converts all player names to UUID in the background, once per database
+     * Rows are converted in batches of their own, so an interrupted conversion continues where it stopped
      * To be Called a single time on plugin startup
      *
      * @param pPlugin Plugin
      */
-    // Assignment is used in case of exception
     public static void convertToUuid(Plugin pPlugin) {
         if (!PlayerIdentifier.GetUUIDSupport())
             return; // Legacy mode
         SSDatabase metadb = new SSDatabase(filename);
-        Map<Integer, Object> params = new LinkedHashMap<>();
-        params.put(1, pPlugin.getName());
-        ToConvert lastAttempt = null;
-
         try {
-            ResultSet set = (ResultSet) metadb.runStatement("SELECT Playername, Metakey, Metavalue FROM PlayerMeta WHERE Plugin = ?", params, true);
-            if (set == null)
+            if (metadb.getSchemaVersion() != DatabaseSchema.playersConvertedVersion - 1)
                 return;
-            List<ToConvert> toConverts = new LinkedList<>();
-            while (set.next()) {
-                String playername = set.getString("Playername");
-                String metakey = set.getString("Metakey");
-                String metavalue = set.getString("Metavalue");
-                if (playername == null || metakey == null)
-                    continue;
-                SignShopPlayer player = PlayerIdentifier.getPlayerFromString(playername);
-                if (player == null)
-                    continue;
-                // Adding a NPE check to solve an issue where SignShop is failing to load.
-                // Presumably the DB file is missing some necessary info, but in the sample
-                // case UUID conversion happened long ago, so it does not need to happen again.
-                if (player.GetIdentifier() == null)
-                    continue;
-                String id = player.GetIdentifier().toString();
-                if (!playername.equalsIgnoreCase(id))
-                    toConverts.add(new ToConvert(playername, id, metakey, metavalue));
-            }
-            set.close();
-
-            if (toConverts.size() > 0) {
-                SignShop.log("Starting conversion from Player name to UUID for PlayerMeta table. Please be patient and don't interrupt the process.", Level.INFO);
-            }
-
-            for (ToConvert convert : toConverts) {
-                lastAttempt = convert;
-
-                params.clear();
-                params.put(1, pPlugin.getName());
-                params.put(2, convert.playerName);
-                params.put(3, convert.metakey);
-                metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false);
-
-                params.clear();
-                params.put(1, pPlugin.getName());
-                params.put(2, convert.newId);
-                params.put(3, convert.metakey);
-                params.put(4, convert.metavalue);
-                metadb.runStatement("INSERT INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)", params, false);
-            }
-        } catch (SQLException ex) {
-            SignShop.log("Failed to convert Player names to UUID in PlayerMeta table because: " + ex.getMessage(), Level.WARNING);
-            if (lastAttempt != null)
-                SignShop.log(String.format("Failed conversion at meta for player '%s' with metakey '%s'", lastAttempt.playerName, lastAttempt.metakey), Level.WARNING);
         } finally {
             metadb.close();
         }
+        Bukkit.getScheduler().runTaskAsynchronously(pPlugin, () -> convertNames(pPlugin));
     }
 
-    public String getMetaValue(String key) {
+    private static void convertNames(Plugin pPlugin) {
         SSDatabase metadb = new SSDatabase(filename);
-        Map<Integer, Object> params = new LinkedHashMap<>();
-        params.put(1, plugin.getName());
-        params.put(2, ssPlayer.GetIdentifier().toString());
-        params.put(3, key);
-
         try {
-            ResultSet set = (ResultSet)metadb.runStatement("SELECT Metavalue FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, true);
-            if(set == null)
-                return null;
-            if(set.next())
-                return set.getString("Metavalue");
-            else
-                return null;
-        } catch(SQLException ex) {
-            return null;
+            // Names are at most 16 characters, so rows of 36 characters have been converted already
+            List<ToConvert> toConverts = metadb.query("SELECT PlayerMetaID, Playername FROM PlayerMeta WHERE length(Playername) != 36", null, set -> {
+                List<ToConvert> found = new ArrayList<>();
+                while (set.next())
+                    found.add(new ToConvert(set.getInt("PlayerMetaID"), set.getString("Playername")));
+                return found;
+            });
+            if (toConverts == null)
+                return;
+
+            if (!toConverts.isEmpty()) {
+                SignShop.log("Starting conversion from Player name to UUID for " + toConverts.size()
+                        + " rows of the PlayerMeta table in the background.", Level.INFO);
+
+                // Resolve every name in one pass, only players that have played here are known by name
+                Map<String, String> ids = new HashMap<>();
+                for (OfflinePlayer player : Bukkit.getOfflinePlayers()) {
+                    if (player.getName() != null && player.getFirstPlayed() != 0)
+                        ids.put(player.getName().toLowerCase(), player.getUniqueId().toString());
+                }
+
+                int converted = 0;
+                for (int from = 0; from < toConverts.size(); from += conversionBatchSize) {
+                    if (!pPlugin.isEnabled())
+                        return; // Continued on the next startup
+                    List<ToConvert> batch = toConverts.subList(from, Math.min(from + conversionBatchSize, toConverts.size()));
+                    Set<String> convertedIds = new HashSet<>();
+                    boolean written = metadb.transaction(() -> {
+                        Map<Integer, Object> params = new LinkedHashMap<>();
+                        for (ToConvert convert : batch) {
+                            String id = (convert.playerName == null ? null : ids.get(convert.playerName.toLowerCase()));
+                            if (id == null)
+                                continue;
+                            params.clear();
+                            params.put(1, id);
+                            params.put(2, convert.rowId);
+                            // Values stored for the UUID already are newer, those win over the row of the name
+                            metadb.update("UPDATE OR IGNORE PlayerMeta SET Playername = ? WHERE PlayerMetaID = ?", params);
+                            params.clear();
+                            params.put(1, convert.rowId);
+                            params.put(2, convert.playerName);
+                            metadb.update("DELETE FROM PlayerMeta WHERE PlayerMetaID = ? AND Playername = ?", params);
+                            convertedIds.add(id);
+                        }
+                    });
+                    if (!written) {
+                        SignShop.log("Failed to convert Player names to UUID in PlayerMeta table, will try again on the next startup.", Level.WARNING);
+                        return;
+                    }
+                    // Players loaded before their rows were converted are loaded again on next access
+                    for (String id : convertedIds)
+                        release(id);
+                    converted += batch.size();
+                    SignShop.log("Converted " + converted + " of " + toConverts.size() + " rows of the PlayerMeta table.", Level.INFO);
+                }
+            }
+
+            metadb.migrate(DatabaseSchema.players);
         } finally {
             metadb.close();
         }
     }
 
-    public boolean setMetavalue(String key, String value) {
-        if(getMetaValue(key) != null) {
-            return updateMeta(key, value);
-        }
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            params.put(4, value);
-            return (metadb.runStatement("INSERT INTO PlayerMeta(Plugin, Playername, Metakey, Metavalue) VALUES (?, ?, ?, ?)", params, false) != null);
-        } finally {
-            metadb.close();
-        }
+    public String getMetaValue(String key) {
+        return PlayerMetaCache.get().get(plugin.getName(), ssPlayer.GetIdentifier().toString(), key);
+    }
 
+    /**
+     * Stores the value in memory right away, it is written to the database in the background
+     *
+     * @param key Metakey
+     * @param value Metavalue
+     * @return Always true
+     */
+    public boolean setMetavalue(String key, String value) {
+        PlayerMetaCache.get().set(plugin.getName(), ssPlayer.GetIdentifier().toString(), key, value);
+        return true;
     }
 
     public boolean updateMeta(String key, String value) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, value);
-            params.put(2, plugin.getName());
-            params.put(3, ssPlayer.GetIdentifier().toString());
-            params.put(4, key);
-            return (metadb.runStatement("UPDATE PlayerMeta SET Metavalue = ? WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false) != null);
-        } finally {
-            metadb.close();
-        }
+        return setMetavalue(key, value);
     }
 
     public boolean removeMeta(String key) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            return (metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey = ?", params, false) != null);
-        } finally {
-            metadb.close();
-        }
+        return PlayerMetaCache.get().remove(plugin.getName(), ssPlayer.GetIdentifier().toString(), key);
     }
 
+    /**
+     * Removes all keys matching the given LIKE pattern, only patterns ending in a single % are supported
+     *
+     * @param key Pattern such as "help_%"
+     */
     public void removeMetakeyLike(String key) {
-        SSDatabase metadb = new SSDatabase(filename);
-        try {
-            Map<Integer, Object> params = new LinkedHashMap<>();
-            params.put(1, plugin.getName());
-            params.put(2, ssPlayer.GetIdentifier().toString());
-            params.put(3, key);
-            metadb.runStatement("DELETE FROM PlayerMeta WHERE Plugin = ? AND Playername = ? AND Metakey LIKE ?", params, false);
-        } finally {
-            metadb.close();
-        }
+        String prefix = (key.endsWith("%") ? key.substring(0, key.length() - 1) : key);
+        PlayerMetaCache.get().removeByPrefix(plugin.getName(), ssPlayer.GetIdentifier().toString(), prefix);
     }
 
     private static class ToConvert {
-        public String playerName;
-        public String newId;
-        public String metakey;
-        public String metavalue;
+        private final int rowId;
+        private final String playerName;
 
-        private ToConvert(String pPlayername, String pNewId, String pMetakey, String pMetavalue) {
+        private ToConvert(int pRowId, String pPlayername) {
+            rowId = pRowId;
             playerName = pPlayername;
-            newId = pNewId;
-            metakey = pMetakey;
-            metavalue = pMetavalue;
         }
     }
 }
@@ -1,24 +1,26 @@
 
 package org.wargamer2010.signshop.player;
 
+import org.bukkit.Material;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.wargamer2010.signshop.blocks.ItemFingerprint;
+import org.wargamer2010.signshop.blocks.ItemRequirements;
 import org.wargamer2010.signshop.configuration.SignShopConfig;
 import org.wargamer2010.signshop.util.itemUtil;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 
 import static org.wargamer2010.signshop.util.itemUtil.StackToMap;
-import static org.wargamer2010.signshop.util.itemUtil.getBackupItemStack;
 
 /**
  * Wraps a real inventory and allows for "virtual" operations to be executed which means it doesn't actually touch the inventory
  */
 public class VirtualInventory {
+    // Amounts still missing per required item, reused by every stock check on the same thread
+    private static final ThreadLocal<int[]> missingAmounts = ThreadLocal.withInitial(() -> new int[16]);
+
     private final Inventory inventory;
 
     public VirtualInventory(Inventory inventory) {
@@ -31,10 +33,9 @@ public class VirtualInventory {
      * @return A map filled with the items that can be taken which may be the same as specified by isItemsToTake or a part. Returns an empty map in case of failure.
      */
     public HashMap<ItemStack[], Double> variableAmount(ItemStack[] isItemsToTake) {
-        ItemStack[] isBackup = getBackupItemStack(isItemsToTake);
         HashMap<ItemStack[], Double> returnMap = new HashMap<>();
         returnMap.put(isItemsToTake, 1.0d);
-        boolean fromOK = hasItems(isBackup);
+        boolean fromOK = hasItems(isItemsToTake);
 
         if(fromOK) {
             returnMap.put(isItemsToTake, 1.0d);
@@ -47,10 +48,18 @@ public class VirtualInventory {
         double iCount = 0;
         double tempCount;
         int i = 0;
-        HashMap<ItemStack, Integer> mItemsToTake = StackToMap(isBackup);
-        HashMap<ItemStack, Integer> mInventory = StackToMap(inventory.getContents());
+        Map<ItemFingerprint, Integer> mItemsToTake = new LinkedHashMap<>();
+        Map<ItemFingerprint, ItemStack> mStacksToTake = new HashMap<>();
+        for(ItemStack item : isItemsToTake) {
+            if(item == null)
+                continue;
+            ItemFingerprint fingerprint = ItemFingerprint.of(item);
+            mItemsToTake.merge(fingerprint, item.getAmount(), Integer::sum);
+            mStacksToTake.putIfAbsent(fingerprint, item);
+        }
+        Map<ItemFingerprint, Integer> mInventory = StackToMap(inventory.getContents());
         ItemStack[] isActual = new ItemStack[mItemsToTake.size()];
-        for(Map.Entry<ItemStack, Integer> entry : mItemsToTake.entrySet()) {
+        for(Map.Entry<ItemFingerprint, Integer> entry : mItemsToTake.entrySet()) {
             if(iCount == 0 && mInventory.containsKey(entry.getKey()))
                 iCount = ((double)mInventory.get(entry.getKey()) / (double)entry.getValue());
             else if(iCount != 0 && mInventory.containsKey(entry.getKey())) {
@@ -60,7 +69,7 @@ public class VirtualInventory {
             } else
                 return returnMap;
 
-            isActual[i] = itemUtil.getBackupSingleItemStack(entry.getKey());
+            isActual[i] = itemUtil.getBackupSingleItemStack(mStacksToTake.get(entry.getKey()));
             isActual[i].setAmount(mInventory.get(entry.getKey()));
 
             i++;
@@ -77,11 +86,18 @@ public class VirtualInventory {
      * @return True if there is either sufficient space or the required items available
      */
     public boolean isStockOK(ItemStack[] isItemsToTake, boolean bTakeOrGive) {
+        return isStockOK(ItemRequirements.of(isItemsToTake), bTakeOrGive);
+    }
+
+    /**
+     * Checks whether either the required items can be taken from or added to the inventory as a whole
+     * @param required Items to attempt to add or take
+     * @param bTakeOrGive True to check whether the items can be taken
+     * @return True if there is either sufficient space or the required items available
+     */
+    public boolean isStockOK(ItemRequirements required, boolean bTakeOrGive) {
         try {
-            if(bTakeOrGive)
-                return hasItems(isItemsToTake);
-            else
-                return canTakeItems(isItemsToTake);
+            return (bTakeOrGive ? hasItems(required) : planPlacement(required, null) != null);
         } catch(NullPointerException ex) {
             // Chest is not available, contents are NULL. So let's assume the Stock is not OK
             return false;
@@ -94,22 +110,37 @@ public class VirtualInventory {
      * @return True if the required items are available
      */
     public boolean hasItems(ItemStack[] isItemsToTake) {
-        ItemStack[] isBackup = getBackupItemStack(isItemsToTake);
-
-        HashMap<ItemStack, Integer> mItemsToTake = StackToMap(isBackup);
-        HashMap<ItemStack, Integer> mInventory = StackToMap(inventory.getContents());
-
-        for(Map.Entry<ItemStack, Integer> entry : mItemsToTake.entrySet()) {
-            if(mInventory.containsKey(entry.getKey())) {
-                if(mInventory.get(entry.getKey()) < entry.getValue()) {
-                    return false;
-                }
-            } else {
-                return false;
-            }
+        return hasItems(ItemRequirements.of(isItemsToTake));
+    }
+
+    /**
+     * Checks whether the required items can be taken from the inventory as a whole, in a single pass over its
+     * contents that stops as soon as everything is found
+     * @param required Items to attempt to take
+     * @return True if the required items are available
+     */
+    public boolean hasItems(ItemRequirements required) {
+        int unmet = required.size();
+        if(unmet == 0)
+            return true;
+        int[] missing = missingAmounts.get();
+        if(missing.length < unmet) {
+            missing = new int[unmet];
+            missingAmounts.set(missing);
+        }
+        for(int i = 0; i < unmet; i++)
+            missing[i] = required.getAmount(i);
+
+        for(ItemStack stack : inventory.getContents()) {
+            int index = required.indexOf(stack);
+            if(index == -1 || missing[index] <= 0)
+                continue;
+            missing[index] -= stack.getAmount();
+            if(missing[index] <= 0 && --unmet == 0)
+                return true;
         }
 
-        return true;
+        return false;
     }
 
     /**
@@ -118,122 +149,80 @@ public class VirtualInventory {
      * @return True if there is sufficient space
      */
     public boolean canTakeItems(ItemStack[] isItemsToGive) {
-        Map<Integer, StackWithAmount> lookaside = getAmountsMapping();
-        for (ItemStack item : isItemsToGive) {
-            if (item == null)
-                continue;
-            int amountToAdd = item.getAmount();
-
-            while (amountToAdd > 0) {
-                int partialSpaceIndex = findSpace(item, lookaside, false);
-
-                if (partialSpaceIndex == -1) {
-                    int freeSpaceIndex = findSpace(item, lookaside, true);
-
-                    if (freeSpaceIndex == -1) {
-                        return false;
-                    }
-                    else {
-                        int toSet = amountToAdd;
-
-                        if (amountToAdd > inventory.getMaxStackSize()) {
-                            amountToAdd -= inventory.getMaxStackSize();
-                            toSet = inventory.getMaxStackSize();
-                        }
-                        else {
-                            amountToAdd = 0;
-                        }
-
-                        lookaside.put(freeSpaceIndex, new StackWithAmount(toSet, item));
-                    }
-                }
-                else {
-                    StackWithAmount stackWithAmount = lookaside.get(partialSpaceIndex);
-                    int partialAmount = stackWithAmount.getAmount();
-                    int maxAmount = stackWithAmount.getStack().getMaxStackSize();
-
-                    int toSet;
-                    if (amountToAdd + partialAmount <= maxAmount) {
-                        toSet = amountToAdd + partialAmount;
-                        amountToAdd = 0;
-                    }
-                    else {
-                        toSet = maxAmount;
-                        amountToAdd = amountToAdd + partialAmount - maxAmount;
-                    }
-
-                    lookaside.get(partialSpaceIndex).setAmount(toSet);
-                }
-            }
-        }
+        return (planPlacement(isItemsToGive) != null);
+    }
 
-        return true;
+    /**
+     * Plans where the given isItemsToGive go in the inventory, in a single pass over a snapshot of its contents.
+     * Items first fill the partial stacks they stack with, in slot order, and then the free slots, in slot order.
+     * @param isItemsToGive Items to attempt to add to the inventory
+     * @return The plan to add all items, or null if there is not sufficient space
+     */
+    public PlacementPlan planPlacement(ItemStack[] isItemsToGive) {
+        return planPlacement(ItemRequirements.of(isItemsToGive), isItemsToGive);
     }
 
-    private int findSpace(ItemStack item, Map<Integer, StackWithAmount> lookaside, boolean findEmpty) {
+    /**
+     * Plans where the required items go in the inventory, see {@link #planPlacement(ItemStack[])}
+     * @param toGive Items to attempt to add to the inventory
+     * @param isItemsToGive The stacks toGive was made of, added as they are if the plan can no longer be applied
+     * @return The plan to add all items, or null if there is not sufficient space
+     */
+    public PlacementPlan planPlacement(ItemRequirements toGive, ItemStack[] isItemsToGive) {
         // 1.9.4 and later extend living entity slots beyond 36, but some of these are read-only.
         // We could use .getStorageContents(), but this breaks 1.8.8 compatibility
-        int length = (inventory.getHolder() instanceof HumanEntity) ? 36 : inventory.getSize();
-        @SuppressWarnings("MismatchedReadAndWriteOfArray") ItemStack[] stacks = Arrays.copyOfRange(inventory.getContents(), 0, length);
-
-        if (item == null) {
-            return -1;
+        ItemStack[] contents = inventory.getContents();
+        int length = Math.min(contents.length, (inventory.getHolder() instanceof HumanEntity) ? 36 : inventory.getSize());
+
+        int[] maxAmounts = new int[toGive.size()];
+        List<Deque<Integer>> partialSlots = new ArrayList<>(toGive.size());
+        for(int i = 0; i < toGive.size(); i++) {
+            maxAmounts[i] = Math.min(toGive.getItem(i).getMaxStackSize(), inventory.getMaxStackSize());
+            partialSlots.add(new ArrayDeque<>());
         }
-
-        for (int i = 0; i < stacks.length; i++) {
-            boolean contains = lookaside.containsKey(i);
-            if(findEmpty && !contains) {
-                return i;
-            } else if(!findEmpty && contains) {
-                StackWithAmount compareWith = lookaside.get(i);
-                if(compareWith != null) {
-                    ItemStack compareWithStack = compareWith.getStack();
-                    if (compareWith.getAmount() < compareWithStack.getMaxStackSize() && compareWithStack.isSimilar(item)) {
-                        return i;
-                    }
-                }
+        Deque<Integer> freeSlots = new ArrayDeque<>();
+        int[] amounts = new int[length];
+        for(int slot = 0; slot < length; slot++) {
+            ItemStack stack = contents[slot];
+            if(stack == null || stack.getType() == Material.AIR) {
+                freeSlots.add(slot);
+                continue;
             }
+            amounts[slot] = stack.getAmount();
+            int index = toGive.indexOf(stack);
+            if(index != -1 && amounts[slot] < maxAmounts[index])
+                partialSlots.get(index).add(slot);
         }
 
-        return -1;
-    }
-
-    private Map<Integer, StackWithAmount> getAmountsMapping() {
-        Map<Integer, StackWithAmount> map = new LinkedHashMap<>();
-        ItemStack[] stacks = inventory.getContents();
-
-        for(int i = 0; i < stacks.length; i++) {
-            ItemStack stack = stacks[i];
-            if(stack != null)
-                map.put(i, new StackWithAmount(stack.getAmount(), stack));
-        }
-
-        return map;
-    }
-
-    private static class StackWithAmount {
-        private int amount;
-        private ItemStack stack;
-
-        private StackWithAmount(int amount, ItemStack stack) {
-            this.amount = amount;
-            this.stack = stack;
-        }
-
-        private int getAmount() {
-            return amount;
-        }
-
-        private void setAmount(int amount) {
-            this.amount = amount;
-        }
-
-        private ItemStack getStack() {
-            return stack;
+        List<Integer> slots = new ArrayList<>();
+        List<ItemStack> stacks = new ArrayList<>();
+        for(int i = 0; i < toGive.size(); i++) {
+            int amountToAdd = toGive.getAmount(i);
+            Deque<Integer> partial = partialSlots.get(i);
+            while(amountToAdd > 0) {
+                Integer slot = partial.poll();
+                if(slot == null)
+                    slot = freeSlots.poll();
+                if(slot == null)
+                    return null;
+                int added = Math.min(amountToAdd, maxAmounts[i] - amounts[slot]);
+                slots.add(slot);
+                stacks.add(toGive.getStack(i));
+                amountToAdd -= added;
+                amounts[slot] += added;
+            }
         }
 
-        private void setStack(ItemStack stack) {
-            this.stack = stack;
+        int[] slotsArray = new int[slots.size()];
+        int[] amountsBefore = new int[slots.size()];
+        int[] amountsAfter = new int[slots.size()];
+        for(int i = 0; i < slotsArray.length; i++) {
+            int slot = slots.get(i);
+            ItemStack before = contents[slot];
+            slotsArray[i] = slot;
+            amountsBefore[i] = (before == null || before.getType() == Material.AIR ? 0 : before.getAmount());
+            amountsAfter[i] = amounts[slot];
         }
+        return new PlacementPlan(inventory, isItemsToGive, slotsArray, amountsBefore, amountsAfter, stacks.toArray(new ItemStack[0]));
     }
-}
\ No newline at end of file
+}
@@ -37,7 +37,6 @@ public class ChangeShopItems implements SignShopSpecialOp {
         if(ssPlayer.getItemInHand() == null || ssPlayer.getItemInHand().getType() != SignShopConfig.getUpdateMaterial())
             return false;
         SignShopPlayer ssOwner = seller.getOwner();
-        List<String> operation = SignShopConfig.getBlocks(sOperation);
         String[] sLines = ((Sign) bClicked.getState()).getLines();
 
         if (!seller.isOwner(ssPlayer) && !ssPlayer.isOp()) {
@@ -53,7 +52,7 @@ public class ChangeShopItems implements SignShopSpecialOp {
         if(containables.isEmpty() && activatables.isEmpty())
             return false;
 
-        List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
+        SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(sOperation);
         if (SignShopOperations == null) {
             ssPlayer.sendMessage(SignShopConfig.getError("invalid_operation", null));
             return false;
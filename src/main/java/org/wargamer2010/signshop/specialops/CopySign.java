@@ -78,7 +78,7 @@ public class CopySign implements SignShopSpecialOp {
                 ssPlayer.sendMessage(SignShopConfig.getError("no_permission", null));
                 return true;
             }
-            List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
+            SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(sOperation);
             if(SignShopOperations == null) {
                 ssPlayer.sendMessage("The new operation does not exist!");
                 revert(shopSign, sToChange);
@@ -126,7 +126,8 @@ public class CopySign implements SignShopSpecialOp {
             return true;
         }
 
-        itemUtil.setSignStatus(shopSign, ChatColor.DARK_BLUE);
+        seller.reloadSign();
+        seller.setSignStatus(ChatColor.DARK_BLUE);
 
         ssPlayer.sendMessage(SignShopConfig.getError("updated_shop", null));
         return true;
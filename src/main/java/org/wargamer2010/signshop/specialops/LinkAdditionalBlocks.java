@@ -64,7 +64,6 @@ public class LinkAdditionalBlocks implements SignShopSpecialOp {
         if(ssPlayer.getItemInHand() == null || ssPlayer.getItemInHand().getType() != SignShopConfig.getLinkMaterial())
             return false;
         SignShopPlayer ssOwner = seller.getOwner();
-        List<String> operation = SignShopConfig.getBlocks(sOperation);
         String[] sLines = ((Sign) bClicked.getState()).getLines();
 
         if (!seller.isOwner(ssPlayer) && !ssPlayer.isOp()) {
@@ -80,7 +79,7 @@ public class LinkAdditionalBlocks implements SignShopSpecialOp {
         if(containables.isEmpty() && activatables.isEmpty())
             return false;
 
-        List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
+        SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(sOperation);
         if (SignShopOperations == null) {
             ssPlayer.sendMessage(SignShopConfig.getError("invalid_operation", null));
             return false;
@@ -94,8 +93,7 @@ public class LinkAdditionalBlocks implements SignShopSpecialOp {
 
         Boolean bSetupOK = false;
         for (SignShopOperationListItem ssOperation : SignShopOperations) {
-            List<String> params = ssOperation.getParameters();
-            params.addAll(ssOperation.getParameters());
+            List<String> params = new LinkedList<>(ssOperation.getParameters());
             params.add("allowemptychest");
             params.add("allowNoChests");
             ssArgs.setOperationParameters(params);
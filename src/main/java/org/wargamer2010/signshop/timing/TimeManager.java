@@ -28,7 +28,6 @@ public class TimeManager extends TimerTask {
 
     private final FileSaveWorker fileSaveWorker;
     private File storageFile;
-    private YamlConfiguration storageConfiguration = null;
     private int taskId = -1;
 
     public TimeManager(File storage) {
@@ -40,7 +39,6 @@ public class TimeManager extends TimerTask {
             YamlConfiguration yml = new YamlConfiguration();
             try {
                 yml.load(storage);
-                storageConfiguration = yml;
                 HashMap<String, HashMap<String, String>> entries = fetchHasmapInHashmap(yml);
                 for (Map.Entry<String, HashMap<String, String>> entry : entries.entrySet()) {
                     Object ob = tryReflection(removeTrailingCounter(entry.getKey()));
@@ -81,7 +79,6 @@ public class TimeManager extends TimerTask {
             try {
                 storage.createNewFile();
                 storageFile = storage;
-                storageConfiguration = new YamlConfiguration();
             } catch (IOException ex) {
                 SignShop.log("Unable to create " + storage.getAbsolutePath() + " because: " + ex.getMessage(), Level.SEVERE);
                 return;
@@ -204,8 +201,10 @@ public class TimeManager extends TimerTask {
             saveStructure.put(entry.getKey().getName().replace(".", "=") + "~" + counter, values);
             counter++;
         }
-        this.storageConfiguration.set("expirables", saveStructure);
-        fileSaveWorker.queueSave(storageConfiguration);
+        // A fresh configuration per save, the previous one may still be waiting to be written
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("expirables", saveStructure);
+        fileSaveWorker.queueSave(config);
     }
 
     private Object tryReflection(String fullClassname) {
@@ -12,12 +12,16 @@ import org.wargamer2010.signshop.SignShop;
 import org.wargamer2010.signshop.blocks.*;
 import org.wargamer2010.signshop.configuration.Storage;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.*;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 import java.util.logging.Level;
 
 public class DataConverter {
@@ -30,21 +34,99 @@ public class DataConverter {
     public static void init() {
         File dataFolder = SignShop.getInstance().getDataFolder();
         sellersFile = new File(dataFolder, "sellers.yml");
-        FileConfiguration sellers = new YamlConfiguration();
+        if (!sellersFile.exists())
+            return;
         try {
-            sellers.load(sellersFile);
             SignShop.log("Checking data version.", Level.INFO);
-            if (sellers.getInt("DataVersion") < SignShop.DATA_VERSION) {
+            if (probeDataVersion(sellersFile) < SignShop.DATA_VERSION) {
                 sellersFileBackup = new File(dataFolder, "sellersBackup" + SSTimeUtil.getDateTimeStamp() + ".yml");
                 FileUtil.copy(sellersFile, sellersFileBackup);
-                convertData(sellers);
+                convertData();
                 convertTiming();
             }
             else {
                 SignShop.log("Your data is current.", Level.INFO);
             }
-        } catch (IOException | InvalidConfigurationException ignored) {
+        } catch (IOException | YAMLException ignored) {
+        }
+    }
+
+    /**
+     * Reads the top level DataVersion from the given file without loading the rest of it. The parser stops as soon
+     * as the key is found, which is right away for files written by current versions since they write it first.
+     *
+     * @param file File to probe
+     * @return DataVersion, or 0 if the file has none
+     * @throws IOException If the file can not be read
+     */
+    public static int probeDataVersion(File file) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            Iterator<Event> events = new Yaml().parse(reader).iterator();
+            if (!skipToRootMapping(events))
+                return 0;
+            while (events.hasNext()) {
+                Event event = events.next();
+                if (!(event instanceof ScalarEvent))
+                    return 0;
+                if ("DataVersion".equals(((ScalarEvent) event).getValue())) {
+                    Event value = events.next();
+                    if (!(value instanceof ScalarEvent))
+                        return 0;
+                    try {
+                        return Integer.parseInt(((ScalarEvent) value).getValue().trim());
+                    } catch (NumberFormatException ex) {
+                        return 0;
+                    }
+                }
+                readValue(events.next(), events, false);
+            }
+        }
+        return 0;
+    }
+
+    private static boolean skipToRootMapping(Iterator<Event> events) {
+        while (events.hasNext()) {
+            Event event = events.next();
+            if (event instanceof MappingStartEvent)
+                return true;
+            if (!(event instanceof StreamStartEvent) && !(event instanceof DocumentStartEvent))
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes a single value from the event stream
+     *
+     * @param first First event of the value
+     * @param events Remaining events
+     * @param build False to only skip the value
+     * @return The value as String, List or Map, or null when skipped
+     */
+    private static Object readValue(Event first, Iterator<Event> events, boolean build) {
+        if (first instanceof ScalarEvent) {
+            return (build ? ((ScalarEvent) first).getValue() : null);
+        } else if (first instanceof SequenceStartEvent) {
+            List<Object> list = (build ? new ArrayList<>() : null);
+            Event event;
+            while (!((event = events.next()) instanceof SequenceEndEvent)) {
+                Object value = readValue(event, events, build);
+                if (build)
+                    list.add(value);
+            }
+            return list;
+        } else if (first instanceof MappingStartEvent) {
+            Map<String, Object> map = (build ? new LinkedHashMap<>() : null);
+            Event event;
+            while (!((event = events.next()) instanceof MappingEndEvent)) {
+                Object key = readValue(event, events, build);
+                Object value = readValue(events.next(), events, build);
+                if (build)
+                    map.put(String.valueOf(key), value);
+            }
+            return map;
         }
+        return null;
     }
 
     private static void convertTiming() {
@@ -71,52 +153,129 @@ public class DataConverter {
 
     }
 
-    private static void convertData(FileConfiguration sellers) {
+    /**
+     * Converts sellers.yml one shop at a time, so only a single shop is held in memory at any point
+     */
+    private static void convertData() {
+        SignShop.log("Converting old data.", Level.INFO);
+        File converted = new File(sellersFile.getPath() + ".tmp");
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        options.setIndent(2);
+        Yaml yaml = new Yaml(options);
+        Map<String, Object> otherSettings = new LinkedHashMap<>();
+        int shops = 0;
+        boolean foundSellers = false;
 
-        try {
-            SignShop.log("Converting old data.", Level.INFO);
-            ConfigurationSection section = sellers.getConfigurationSection("sellers");
-            if (section == null) {
-                SignShop.log("There was a problem with the sellers.yml, attempting to fix it. If the problem persists try regenerating the SignShop folder.",Level.WARNING);
-                sellers.set("sellers", new ArrayList<>());
-            }
-            else {
-                Set<String> shops = section.getKeys(false);
-                for (String shop : shops) {
-                    StringBuilder itemPath = new StringBuilder().append("sellers.").append(shop).append(".items");
-                    StringBuilder miscPath = new StringBuilder().append("sellers.").append(shop).append(".misc");
-                    //Strip old data from items
-                    List<String> items = sellers.getStringList(itemPath.toString());
-                    ItemStack[] itemStacks = convertOldStringsToItemStacks(items);
-                    sellers.set(itemPath.toString(), itemUtil.convertItemStacksToString(itemStacks));
-                    //Strip old data from misc
-                    List<String> misc = sellers.getStringList(miscPath.toString());
-                    if (!misc.isEmpty()) {
-                        List<String> newMisc = new ArrayList<>();
-
-                        for (String miscString : misc) {
-                            String[] keyPair = miscString.split(":", 2);
-                            String key = keyPair.length >= 1 ? keyPair[0] : "";
-                            String data = keyPair.length == 2 ? keyPair[1] : "";
-                            //This strips the old data if it exists.
-                            if (data.contains("|")) {
-                                String[] dataPair = data.split("\\|", 2);
-                                data = dataPair.length == 2 ? dataPair[1] : dataPair[0];
-                            }
-                            newMisc.add(key + ":" + data);
-                        }
-                        sellers.set(miscPath.toString(), newMisc);
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(sellersFile), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(converted), StandardCharsets.UTF_8))) {
+            writer.write("DataVersion: " + SignShop.DATA_VERSION + "\n");
+            Iterator<Event> events = new Yaml().parse(reader).iterator();
+            if (skipToRootMapping(events)) {
+                Event event;
+                while (events.hasNext() && !((event = events.next()) instanceof MappingEndEvent)) {
+                    String key = String.valueOf(readValue(event, events, true));
+                    Event value = events.next();
+                    if (!key.equals("sellers") || !(value instanceof MappingStartEvent)) {
+                        if (!key.equals("DataVersion"))
+                            otherSettings.put(key, toTypedValue(readValue(value, events, true)));
+                        else
+                            readValue(value, events, false);
+                        continue;
+                    }
+
+                    foundSellers = true;
+                    writer.write("sellers:\n");
+                    Event shopEvent;
+                    while (!((shopEvent = events.next()) instanceof MappingEndEvent)) {
+                        String shopKey = String.valueOf(readValue(shopEvent, events, true));
+                        Object shop = readValue(events.next(), events, true);
+                        if (!(shop instanceof Map))
+                            continue;
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> shopSettings = (Map<String, Object>) shop;
+                        convertShop(shopSettings);
+                        writeIndented(writer, yaml.dump(Collections.singletonMap(shopKey, shopSettings)));
+                        shops++;
                     }
                 }
-                SignShop.log("Data conversion of " + shops.size() + " shops has finished.", Level.INFO);
             }
-            sellers.set("DataVersion", SignShop.DATA_VERSION);
-            sellers.save(sellersFile);
+
+            if (!foundSellers) {
+                SignShop.log("There was a problem with the sellers.yml, attempting to fix it. If the problem persists try regenerating the SignShop folder.",Level.WARNING);
+                writer.write("sellers: {}\n");
+            }
+            if (!otherSettings.isEmpty())
+                writer.write(yaml.dump(otherSettings));
+        } catch (IOException | YAMLException | NoSuchElementException e) {
+            SignShop.log("Error converting data!", Level.WARNING);
+            converted.delete();
+            return;
+        }
+
+        try {
+            Files.move(converted.toPath(), sellersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (foundSellers)
+                SignShop.log("Data conversion of " + shops + " shops has finished.", Level.INFO);
         } catch (IOException e) {
             SignShop.log("Error converting data!", Level.WARNING);
         }
     }
 
+    private static void convertShop(Map<String, Object> shop) {
+        //Strip old data from items
+        List<String> items = toStringList(shop.get("items"));
+        ItemStack[] itemStacks = convertOldStringsToItemStacks(items);
+        shop.put("items", Arrays.asList(itemUtil.convertItemStacksToString(itemStacks)));
+        //Strip old data from misc
+        List<String> misc = toStringList(shop.get("misc"));
+        if (!misc.isEmpty()) {
+            List<String> newMisc = new ArrayList<>();
+
+            for (String miscString : misc) {
+                String[] keyPair = miscString.split(":", 2);
+                String key = keyPair.length >= 1 ? keyPair[0] : "";
+                String data = keyPair.length == 2 ? keyPair[1] : "";
+                //This strips the old data if it exists.
+                if (data.contains("|")) {
+                    String[] dataPair = data.split("\\|", 2);
+                    data = dataPair.length == 2 ? dataPair[1] : dataPair[0];
+                }
+                newMisc.add(key + ":" + data);
+            }
+            shop.put("misc", newMisc);
+        }
+    }
+
+    private static List<String> toStringList(Object value) {
+        List<String> list = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object entry : (List<?>) value) {
+                if (entry != null)
+                    list.add(entry.toString());
+            }
+        }
+        return list;
+    }
+
+    private static Object toTypedValue(Object value) {
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return value;
+    }
+
+    private static void writeIndented(Writer writer, String yaml) throws IOException {
+        for (String line : yaml.split("\n")) {
+            writer.write("  ");
+            writer.write(line);
+            writer.write("\n");
+        }
+    }
+
     public static ItemStack[] convertOldStringsToItemStacks(List<String> itemStringList) {
         IItemTags itemTags = BookFactory.getItemTags();
         ItemStack[] itemStacks = new ItemStack[itemStringList.size()];
@@ -4,6 +4,7 @@ import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.Tag;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.Sign;
 import org.bukkit.block.data.Bisected;
@@ -22,6 +23,7 @@ import org.wargamer2010.signshop.configuration.Storage;
 import org.wargamer2010.signshop.operations.SignShopArguments;
 import org.wargamer2010.signshop.operations.SignShopArgumentsType;
 import org.wargamer2010.signshop.operations.SignShopOperationListItem;
+import org.wargamer2010.signshop.player.PlacementPlan;
 import org.wargamer2010.signshop.player.VirtualInventory;
 
 import java.util.*;
@@ -48,18 +50,20 @@ public class itemUtil {
      * @return The minimum ItemStacks needed
      */
     public static ItemStack[] getMinimumAmount(ItemStack[] isItems) {
-        HashMap<ItemStack, Integer> materialByMaximumAmount = new LinkedHashMap<>();
+        Map<ItemFingerprint, ItemStack> largestByItem = new LinkedHashMap<>();
 
         for(ItemStack item: isItems) {
-            ItemStack isBackup = getSingleAmountOfStack(item);
-            if(!materialByMaximumAmount.containsKey(isBackup) || materialByMaximumAmount.get(isBackup) < item.getAmount())
-                materialByMaximumAmount.put(isBackup, item.getAmount());
+            if(item == null)
+                continue;
+            ItemFingerprint fingerprint = ItemFingerprint.of(item);
+            ItemStack largest = largestByItem.get(fingerprint);
+            if(largest == null || largest.getAmount() < item.getAmount())
+                largestByItem.put(fingerprint, item);
         }
-        ItemStack[] isBackupToTake = new ItemStack[materialByMaximumAmount.size()];
+        ItemStack[] isBackupToTake = new ItemStack[largestByItem.size()];
         int i = 0;
-        for(Map.Entry<ItemStack, Integer> entry : materialByMaximumAmount.entrySet()) {
-            entry.getKey().setAmount(entry.getValue());
-            isBackupToTake[i] = entry.getKey();
+        for(ItemStack largest : largestByItem.values()) {
+            isBackupToTake[i] = getBackupSingleItemStack(largest);
             i++;
         }
         return isBackupToTake;
@@ -83,21 +87,57 @@ public class itemUtil {
     }
 
     public static boolean stockOKForContainables(List<Block> containables, ItemStack[] items, boolean bTakeOrGive) {
-        return (getFirstStockOKForContainables(containables, items, bTakeOrGive) != null);
+        return stockOKForContainables(containables, ItemRequirements.of(items), bTakeOrGive);
+    }
+
+    public static boolean stockOKForContainables(List<Block> containables, ItemRequirements required, boolean bTakeOrGive) {
+        return (getFirstStockOKForContainables(containables, required, bTakeOrGive) != null);
     }
 
     public static InventoryHolder getFirstStockOKForContainables(List<Block> containables, ItemStack[] items, boolean bTakeOrGive) {
+        return getFirstStockOKForContainables(containables, ItemRequirements.of(items), bTakeOrGive);
+    }
+
+    /**
+     * @param containables Blocks to check
+     * @param required Items to take or add, see {@link SignShopArguments#getItemRequirements()}
+     * @param bTakeOrGive True to check whether the items can be taken
+     * @return The first containable that has the items or the space for them, or null if there is none
+     */
+    public static InventoryHolder getFirstStockOKForContainables(List<Block> containables, ItemRequirements required, boolean bTakeOrGive) {
         for(Block bHolder : containables) {
             if(bHolder.getState() instanceof InventoryHolder) {
                 InventoryHolder Holder = (InventoryHolder)bHolder.getState();
                 VirtualInventory vInventory = new VirtualInventory(Holder.getInventory());
-                if(vInventory.isStockOK(items, bTakeOrGive))
+                if(vInventory.isStockOK(required, bTakeOrGive))
                     return Holder;
             }
         }
         return null;
     }
 
+    /**
+     * @param containables Blocks to add the items to
+     * @param required Items to add
+     * @param items The stacks required was made of
+     * @return The plan to add the items to the first containable they fit in, or null if they fit in none
+     */
+    public static PlacementPlan getFirstPlacementForContainables(List<Block> containables, ItemRequirements required, ItemStack[] items) {
+        for(Block bHolder : containables) {
+            if(bHolder.getState() instanceof InventoryHolder) {
+                InventoryHolder Holder = (InventoryHolder)bHolder.getState();
+                try {
+                    PlacementPlan plan = new VirtualInventory(Holder.getInventory()).planPlacement(required, items);
+                    if(plan != null)
+                        return plan;
+                } catch(NullPointerException ex) {
+                    // Chest is not available, so the items do not fit in it
+                }
+            }
+        }
+        return null;
+    }
+
     public static void fixBooks(ItemStack[] stacks) {
         if(stacks == null || !SignShopConfig.getEnableWrittenBookFix())
             return;
@@ -201,52 +241,43 @@ public class itemUtil {
         return sb.toString();
     }
 
-    private static ItemStack getSingleAmountOfStack(ItemStack item) {
-        if(item == null)
-            return null;
-        IItemTags tags = BookFactory.getItemTags();
-        ItemStack isBackup = tags.getCraftItemstack(
-            item.getType(),
-            1,
-            item.getDurability()
-        );
-        safelyAddEnchantments(isBackup, item.getEnchantments());
-        return tags.copyTags(item, isBackup);
+    public static String itemStackToString(ItemStack[] isStacks) {
+        return itemStackToString(isStacks, null);
     }
 
-   @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
-    public static String itemStackToString(ItemStack[] isStacks) {
+    /**
+     * @param isStacks Stacks to describe, may contain null
+     * @param amounts Amount to show for the stack at the same index, or null to show the amounts of the stacks
+     * @return The stacks as shown in messages
+     */
+    public static String itemStackToString(ItemStack[] isStacks, int[] amounts) {
         if(isStacks == null || isStacks.length == 0)
             return "";
-        HashMap<ItemStack, Integer> items = new HashMap<>();
-        HashMap<ItemStack, Map<Enchantment, Integer>> enchantments = new HashMap<>();
+        // First stack of every item, names and titles do not depend on the amount
+        Map<ItemFingerprint, ItemStack> stacks = new LinkedHashMap<>();
+        Map<ItemFingerprint, Integer> items = new HashMap<>();
         StringBuilder sItems = new StringBuilder();
         boolean first = true;
-        int tempAmount;
-        for(ItemStack item: isStacks) {
+        for(int i = 0; i < isStacks.length; i++) {
+            ItemStack item = isStacks[i];
             if(item == null)
                 continue;
-            ItemStack isBackup = getSingleAmountOfStack(item);
-
-            if(item.getEnchantments().size() > 0)
-                enchantments.put(isBackup, item.getEnchantments());
-            if(items.containsKey(isBackup)) {
-                tempAmount = (items.get(isBackup) + item.getAmount());
-                items.put(isBackup, tempAmount);
-            } else
-                items.put(isBackup, item.getAmount());
+            ItemFingerprint fingerprint = ItemFingerprint.of(item);
+            stacks.putIfAbsent(fingerprint, item);
+            items.merge(fingerprint, (amounts == null ? item.getAmount() : amounts[i]), Integer::sum);
         }
-        for(Map.Entry<ItemStack, Integer> entry : items.entrySet()) {
+        for(Map.Entry<ItemFingerprint, ItemStack> entry : stacks.entrySet()) {
+            ItemStack stack = entry.getValue();
             if(first) first = false;
             else sItems.append(SignShopConfig.getTextColor()).append(", ");
-            String newItemMeta = SignShopItemMeta.getName(entry.getKey());
-            String count = (SignShopItemMeta.getTextColor() + entry.getValue().toString() + " ");
+            String newItemMeta = SignShopItemMeta.getName(stack);
+            String count = (SignShopItemMeta.getTextColor() + items.get(entry.getKey()).toString() + " ");
             if(newItemMeta.isEmpty())
-                sItems.append(count).append(formatMaterialName(entry.getKey()));
+                sItems.append(count).append(formatMaterialName(stack));
             else
                 sItems.append(count).append(newItemMeta);
-            if(itemUtil.isWriteableBook(entry.getKey())) {
-                IBookItem book = BookFactory.getBookItem(entry.getKey());
+            if(itemUtil.isWriteableBook(stack)) {
+                IBookItem book = BookFactory.getBookItem(stack);
                 if(book != null && (book.getAuthor() != null || book.getTitle() != null))
                     sItems.append(" (").append(book.getTitle() == null ? "Unknown" : book.getTitle()).append(" by ").append(book.getAuthor() == null ? "Unknown" : book.getAuthor()).append(")");
             }
@@ -277,6 +308,10 @@ public class itemUtil {
             if(ChatColor.stripColor(sLines[0]).length() <= 14) {
                 signblock.setLine(0, (color + ChatColor.stripColor(sLines[0])));
                 signblock.update();
+                // Keep the cached text of the shop in line with the block
+                Seller seller = Storage.get().getSeller(sign.getLocation());
+                if(seller != null)
+                    seller.setSignLines(signblock.getLines());
             }
         }
     }
@@ -314,21 +349,17 @@ public class itemUtil {
         return true;
     }
 
-    public static HashMap<ItemStack, Integer> StackToMap(ItemStack[] isStacks) {
-        ItemStack[] isBackup = getBackupItemStack(isStacks);
-        HashMap<ItemStack, Integer> mReturn = new HashMap<>();
-        if(isBackup == null)
+    /**
+     * @param isStacks Stacks to count, may contain null
+     * @return Total amount per item, in the order the items first occur
+     */
+    public static Map<ItemFingerprint, Integer> StackToMap(ItemStack[] isStacks) {
+        Map<ItemFingerprint, Integer> mReturn = new LinkedHashMap<>();
+        if(isStacks == null)
             return mReturn;
-        int tempAmount;
-        for (ItemStack itemStack : isBackup) {
+        for (ItemStack itemStack : isStacks) {
             if (itemStack == null) continue;
-            tempAmount = itemStack.getAmount();
-            itemStack.setAmount(1);
-            if (mReturn.containsKey(itemStack)) {
-                tempAmount += mReturn.get(itemStack);
-                mReturn.remove(itemStack);
-            }
-            mReturn.put(itemStack, tempAmount);
+            mReturn.merge(ItemFingerprint.of(itemStack), itemStack.getAmount(), Integer::sum);
         }
         return mReturn;
     }
@@ -354,11 +385,9 @@ public class itemUtil {
     public static ItemStack[] filterStacks(ItemStack[] all, ItemStack[] filterby) {
         ItemStack[] filtered = new ItemStack[all.length];
         List<ItemStack> tempFiltered = new LinkedList<>();
-        HashMap<ItemStack, Integer> mFilter = StackToMap(filterby);
+        Map<ItemFingerprint, Integer> mFilter = StackToMap(filterby);
         for(ItemStack stack : all) {
-            ItemStack temp = getBackupSingleItemStack(stack);
-            temp.setAmount(1);
-            if(mFilter.containsKey(temp)) {
+            if(stack != null && mFilter.containsKey(ItemFingerprint.of(stack))) {
                 tempFiltered.add(stack);
             }
         }
@@ -383,30 +412,26 @@ public class itemUtil {
     public static void updateStockStatusPerShop(Seller pSeller) {
         if(pSeller != null) {
             Block pSign = pSeller.getSign();
-            if(pSign == null || !(pSign.getState() instanceof Sign))
+            if(pSign == null || pSeller.getSignLines() == null)
                 return;
-            String[] sLines = ((Sign) pSign.getState()).getLines();
-            if(SignShopConfig.getBlocks(signshopUtil.getOperation(sLines[0])).isEmpty())
+            SignShopOperationListItem[] SignShopOperations = SignShopConfig.getCompiledBlocks(pSeller.getOperation());
+            if(SignShopOperations == null || SignShopOperations.length == 0)
                 return;
-            List<String> operation = SignShopConfig.getBlocks(signshopUtil.getOperation(sLines[0]));
-            List<SignShopOperationListItem> SignShopOperations = signshopUtil.getSignShopOps(operation);
-            if(SignShopOperations == null)
-                return;
-            SignShopArguments ssArgs = new SignShopArguments(economyUtil.parsePrice(sLines[3]), pSeller.getItems(), pSeller.getContainables(), pSeller.getActivatables(),
-                                                                null, null, pSign, signshopUtil.getOperation(sLines[0]), null, Action.RIGHT_CLICK_BLOCK, SignShopArgumentsType.Check);
-            if(pSeller.getRawMisc() != null)
-                ssArgs.miscSettings = pSeller.getRawMisc();
+            SignShopArguments ssArgs = new SignShopArguments(pSeller.getPrice(), pSeller.getItems(), pSeller.getContainables(), pSeller.getActivatables(),
+                                                                null, null, pSign, pSeller.getOperation(), null, Action.RIGHT_CLICK_BLOCK, SignShopArgumentsType.Check);
+            ssArgs.setItemRequirements(pSeller.getItemRequirements());
+            ssArgs.miscSettings = pSeller.getRawMisc();
             Boolean reqOK = true;
             for(SignShopOperationListItem ssOperation : SignShopOperations) {
                 ssArgs.setOperationParameters(ssOperation.getParameters());
                 reqOK = ssOperation.getOperation().checkRequirements(ssArgs, false);
                 if(!reqOK) {
-                    itemUtil.setSignStatus(pSign, ChatColor.DARK_RED);
+                    pSeller.setSignStatus(ChatColor.DARK_RED);
                     break;
                 }
             }
             if(reqOK)
-                itemUtil.setSignStatus(pSign, ChatColor.DARK_BLUE);
+                pSeller.setSignStatus(ChatColor.DARK_BLUE);
         }
     }
 
@@ -515,14 +540,9 @@ public class itemUtil {
     public static boolean itemstackEqual(ItemStack a, ItemStack b, boolean ignoredur) {
         if(a.getType() != b.getType())
             return false;
-        if(!ignoredur && a.getDurability() != b.getDurability())
-            return false;
-        if(a.getEnchantments() != b.getEnchantments())
-            return false;
-        if(!SignShopItemMeta.getMetaAsMap(a.getItemMeta()).equals(SignShopItemMeta.getMetaAsMap(b.getItemMeta())))
-            return false;
-        
-        return a.getMaxStackSize() == b.getMaxStackSize();
+        ItemFingerprint fingerprint = ItemFingerprint.of(a);
+        ItemFingerprint other = ItemFingerprint.of(b);
+        return (ignoredur ? fingerprint.equalsIgnoringDamage(other) : fingerprint.equals(other));
     }
 
     public static void loadChunkByBlock(Block block, int radius) {
@@ -542,6 +562,24 @@ public class itemUtil {
 
     }
 
+    /**
+     * Loads the chunks of the given blocks, every chunk is only looked at once
+     *
+     * @param blocks Blocks to load the chunks of
+     */
+    public static void loadChunksOfBlocks(List<Block> blocks) {
+        Set<Long> seen = new HashSet<>();
+        for(Block block : blocks) {
+            int x = (block.getX() >> 4);
+            int z = (block.getZ() >> 4);
+            if(!seen.add((((long) x) << 32) ^ (z & 0xffffffffL)))
+                continue;
+            World world = block.getWorld();
+            if(!world.isChunkLoaded(x, z))
+                world.loadChunk(x, z);
+        }
+    }
+
     public static boolean loadChunkByBlock(Block block) {
         if(block == null)
             return false;
@@ -619,8 +619,7 @@ public class signshopUtil {
         String rawparam = ssArgs.getOperation().get().toLowerCase();
         if(ssArgs.hasOperationParameters())
             rawparam = ssArgs.getFirstOperationParameter().toLowerCase();
-        rawparam = SignShopConfig.fillInBlanks(rawparam, ssArgs.getMessageParts());
-        rawparam = SignShopConfig.fillInBlanks(rawparam, ssArgs.getMessageParts());
+        rawparam = SignShopConfig.fillInCommand(rawparam, ssArgs.getMessageParts());
         if(rawparam != null && !rawparam.isEmpty())
             ssArgs.setMessagePart("!param", rawparam);
         return rawparam;
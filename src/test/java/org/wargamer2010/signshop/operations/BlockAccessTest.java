@@ -0,0 +1,131 @@
+package org.wargamer2010.signshop.operations;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockAccessTest {
+    private static final File OPERATIONS = new File("src/main/java/org/wargamer2010/signshop/operations");
+    private static final Pattern DECLARED = Pattern.compile("getBlockAccess\\(\\)\\s*\\{\\s*return BlockAccess\\.(\\w+);");
+
+    private static SignShopOperationListItem[] operations(BlockAccess... accesses) {
+        SignShopOperationListItem[] items = new SignShopOperationListItem[accesses.length];
+        for(int i = 0; i < accesses.length; i++)
+            items[i] = new SignShopOperationListItem(new Stub(accesses[i]), Collections.emptyList());
+        return items;
+    }
+
+    @Test
+    public void flags() {
+        assertFalse(BlockAccess.None.needsContainables());
+        assertFalse(BlockAccess.None.needsActivatables());
+        assertTrue(BlockAccess.Containables.needsContainables());
+        assertFalse(BlockAccess.Containables.needsActivatables());
+        assertFalse(BlockAccess.Activatables.needsContainables());
+        assertTrue(BlockAccess.Activatables.needsActivatables());
+        assertTrue(BlockAccess.All.needsContainables());
+        assertTrue(BlockAccess.All.needsActivatables());
+    }
+
+    @Test
+    public void noOperationsNeedNothing() {
+        assertEquals(BlockAccess.None, BlockAccess.of(operations()));
+    }
+
+    @Test
+    public void singleOperationKeepsItsAccess() {
+        for(BlockAccess access : BlockAccess.values())
+            assertEquals(access, BlockAccess.of(operations(access)));
+    }
+
+    @Test
+    public void noneAddsNothing() {
+        for(BlockAccess access : BlockAccess.values()) {
+            assertEquals(access, BlockAccess.of(operations(BlockAccess.None, access)));
+            assertEquals(access, BlockAccess.of(operations(access, BlockAccess.None, BlockAccess.None)));
+        }
+    }
+
+    @Test
+    public void sameAccessStaysTheSame() {
+        for(BlockAccess access : BlockAccess.values())
+            assertEquals(access, BlockAccess.of(operations(access, access)));
+    }
+
+    @Test
+    public void containablesAndActivatablesNeedAll() {
+        assertEquals(BlockAccess.All, BlockAccess.of(operations(BlockAccess.Containables, BlockAccess.Activatables)));
+        assertEquals(BlockAccess.All, BlockAccess.of(operations(BlockAccess.Activatables, BlockAccess.None, BlockAccess.Containables)));
+    }
+
+    @Test
+    public void allWins() {
+        for(BlockAccess access : BlockAccess.values()) {
+            assertEquals(BlockAccess.All, BlockAccess.of(operations(BlockAccess.All, access)));
+            assertEquals(BlockAccess.All, BlockAccess.of(operations(access, BlockAccess.All)));
+        }
+    }
+
+    /**
+     * An operation that reads blocks it does not declare would run with their chunks unloaded, so check the
+     * declaration of every operation against the blocks its source reads
+     */
+    @Test
+    public void operationsDeclareTheBlocksTheyRead() throws IOException {
+        File[] files = OPERATIONS.listFiles((dir, name) -> name.endsWith(".java"));
+        assertNotNull("Operations not found in " + OPERATIONS.getAbsolutePath(), files);
+        int checked = 0;
+        for(File file : files) {
+            String source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            if(!source.contains("implements SignShopOperation"))
+                continue;
+            Matcher matcher = DECLARED.matcher(source);
+            BlockAccess access = (matcher.find() ? BlockAccess.valueOf(matcher.group(1)) : BlockAccess.All);
+            if(source.contains("getContainables()"))
+                assertTrue(file.getName() + " reads containables but declares " + access, access.needsContainables());
+            if(source.contains("getActivatables()"))
+                assertTrue(file.getName() + " reads activatables but declares " + access, access.needsActivatables());
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    private static class Stub implements SignShopOperation {
+        private final BlockAccess access;
+
+        Stub(BlockAccess access) {
+            this.access = access;
+        }
+
+        @Override
+        public Boolean setupOperation(SignShopArguments ssArgs) {
+            return true;
+        }
+
+        @Override
+        public Boolean checkRequirements(SignShopArguments ssArgs, Boolean activeCheck) {
+            return true;
+        }
+
+        @Override
+        public Boolean runOperation(SignShopArguments ssArgs) {
+            return true;
+        }
+
+        @Override
+        public BlockAccess getBlockAccess() {
+            return access;
+        }
+    }
+}